@@ -0,0 +1,99 @@
+package ru.mirea.prometheus.service;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes message log entries to an embedded PostgreSQL, comparing one autocommitted insert per record, as the
+ * record listener does through JPA, with the batched insert of {@link MessageLogWriter}. Ops/s are messages/s.
+ * The embedded server has no TimescaleDB extension, so {@code message_log} is a plain table with the same
+ * columns and primary key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageLogWriterBenchmark {
+
+    private static final int MESSAGES = 500;
+    private static final String INSERT =
+            "INSERT INTO message_log (id, message, received_at, hostname) VALUES (?, ?, ?, ?)";
+
+    @Param({"false", "true"})
+    private boolean reWriteBatchedInserts;
+
+    private EmbeddedPostgres postgres;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private MessageLogWriter writer;
+
+    @Setup
+    public void setUp() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+        DataSource dataSource = postgres.getDatabase("postgres", "postgres",
+                Map.of("reWriteBatchedInserts", String.valueOf(reWriteBatchedInserts)));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("""
+                CREATE TABLE message_log
+                (
+                    id          UUID        NOT NULL,
+                    message     TEXT        NOT NULL,
+                    received_at TIMESTAMPTZ NOT NULL,
+                    hostname    TEXT        NOT NULL,
+                    PRIMARY KEY (id, received_at)
+                )""");
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        writer = new MessageLogWriter(jdbcTemplate);
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.execute("TRUNCATE message_log");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void perRecord() {
+        OffsetDateTime receivedAt = OffsetDateTime.now();
+        for (int i = 0; i < MESSAGES; i++) {
+            jdbcTemplate.update(INSERT, UuidCreator.getTimeOrderedEpoch(), "message-" + i, receivedAt, "bench-0");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void batched() {
+        OffsetDateTime receivedAt = OffsetDateTime.now();
+        List<MessageLog> entries = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            entries.add(new MessageLog(UuidCreator.getTimeOrderedEpoch(), "message-" + i, receivedAt, "bench-0"));
+        }
+        transactionTemplate.executeWithoutResult(status -> writer.insert(entries));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        postgres.close();
+    }
+}
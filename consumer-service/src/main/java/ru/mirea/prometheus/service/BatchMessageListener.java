@@ -0,0 +1,44 @@
+package ru.mirea.prometheus.service;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores each polled batch of records with a single batched insert. Ids are time-ordered UUIDs generated here,
+ * so rows need no round trip for their keys and land in index order. The listener returns only after the
+ * batch is committed, and the container commits the batch offsets after that, so a failed insert is retried
+ * from the same offsets instead of being lost.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "consumer.batch", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class BatchMessageListener {
+
+    @Value("${HOSTNAME:unknown}")
+    private String hostname;
+
+    private final MessageLogWriter messageLogWriter;
+
+    @KafkaListener(topics = "demo-topic", groupId = "group-id", batch = "true")
+    public void listen(List<ConsumerRecord<String, String>> records) {
+        OffsetDateTime receivedAt = OffsetDateTime.now();
+        List<MessageLog> entries = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, String> record : records) {
+            entries.add(new MessageLog(UuidCreator.getTimeOrderedEpoch(), record.value(), receivedAt, hostname));
+        }
+        messageLogWriter.insert(entries);
+
+        log.info("{} stored {} messages", hostname, entries.size());
+    }
+}
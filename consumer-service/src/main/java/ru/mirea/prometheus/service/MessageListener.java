@@ -0,0 +1,38 @@
+package ru.mirea.prometheus.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Stores every record in its own JPA transaction. Used when batching is disabled.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "consumer.batch", name = "enabled", havingValue = "false")
+public class MessageListener {
+
+    @Value("${HOSTNAME:unknown}")
+    private String hostname;
+
+    private final MessageLogRepository messageLogRepository;
+
+    @KafkaListener(topics = "demo-topic", groupId = "group-id")
+    public void listen(String message) {
+        MessageLog logEntry = new MessageLog(
+                null,
+                message,
+                OffsetDateTime.now(),
+                hostname
+        );
+        messageLogRepository.save(logEntry);
+
+        log.info("{} received message: {}", hostname, message);
+    }
+}
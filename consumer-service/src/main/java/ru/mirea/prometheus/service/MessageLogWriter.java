@@ -0,0 +1,42 @@
+package ru.mirea.prometheus.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Inserts message log entries with JDBC batching in one transaction. With {@code reWriteBatchedInserts}
+ * enabled on the connection, the driver folds each batch into multi-row inserts.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MessageLogWriter {
+
+    private static final String INSERT =
+            "INSERT INTO message_log (id, message, received_at, hostname) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${consumer.batch.jdbc-batch-size:500}")
+    private int jdbcBatchSize = 500;
+
+    /**
+     * Inserts entries that already have their id, returning once they are committed.
+     */
+    @Transactional
+    public void insert(List<MessageLog> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT, entries, jdbcBatchSize, (statement, entry) -> {
+            statement.setObject(1, entry.getId());
+            statement.setString(2, entry.getMessage());
+            statement.setObject(3, entry.getReceivedAt());
+            statement.setString(4, entry.getHostname());
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package ru.mirea.prometheus.exporter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses one encoded request, comparing the former heap path ({@code toByteArray()} followed by
+ * {@code Snappy.compress(byte[])}) with the direct buffer codecs. The {@code compressedBytes} and
+ * {@code uncompressedBytes} counters give the compression ratio of each codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CompressionBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int seriesPerRequest;
+
+    @Param({"snappy", "zstd"})
+    private String codecName;
+
+    private ByteBuffer uncompressed;
+    private CompressionCodec codec;
+    private ByteBuffer compressed;
+
+    @Setup
+    public void setUp() {
+        uncompressed = SyntheticRegistry.encodedRequest(seriesPerRequest);
+        codec = switch (codecName) {
+            case "snappy" -> new SnappyCodec();
+            case "zstd" -> new ZstdCodec();
+            default -> throw new IllegalArgumentException("Unsupported codec: " + codecName);
+        };
+        compressed = ByteBuffer.allocateDirect(codec.maxCompressedLength(uncompressed.remaining()));
+    }
+
+    @Benchmark
+    public byte[] heapSnappy(Sizes sizes) throws IOException {
+        byte[] body = new byte[uncompressed.remaining()];
+        uncompressed.duplicate().get(body);
+        byte[] result = Snappy.compress(body);
+        sizes.record(body.length, result.length);
+        return result;
+    }
+
+    @Benchmark
+    public int directCodec(Sizes sizes) throws IOException {
+        int length = codec.compress(uncompressed.duplicate(), compressed.clear());
+        sizes.record(uncompressed.remaining(), length);
+        return length;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long uncompressedBytes;
+        public long compressedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            uncompressedBytes = 0;
+            compressedBytes = 0;
+        }
+
+        void record(long uncompressed, long compressed) {
+            uncompressedBytes += uncompressed;
+            compressedBytes += compressed;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a whole scrape into uncompressed remote-write requests, comparing generated protobuf builders with
+ * the streaming encoder for both protocol versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncodingBenchmark {
+
+    private static final int MAX_SERIES_PER_REQUEST = 1000;
+
+    @Param({"100", "1000", "10000"})
+    private int cardinality;
+
+    private MetricSnapshots snapshots;
+    private ProtobufWriteRequests protobuf;
+    private MetricExporter exporter;
+    private RemoteWriteEncoder v1Encoder;
+    private RemoteWriteEncoder v2Encoder;
+    private long encodedBytes;
+
+    @Setup
+    public void setUp() {
+        snapshots = SyntheticRegistry.scrape(SyntheticRegistry.create(cardinality));
+        protobuf = new ProtobufWriteRequests(SyntheticRegistry.SYSTEM_INFO, MAX_SERIES_PER_REQUEST);
+        exporter = new MetricExporter(SyntheticRegistry.SYSTEM_INFO, 60,
+                new PrometheusMeterRegistry(PrometheusConfig.DEFAULT),
+                (shard, writeRequest) -> encodedBytes += writeRequest.size());
+        v1Encoder = encoder(RemoteWriteProtocol.V1);
+        v2Encoder = encoder(RemoteWriteProtocol.V2);
+    }
+
+    @Benchmark
+    public long protobufBuilders() {
+        protobuf.write(snapshots, System.currentTimeMillis(), request -> encodedBytes += request.length);
+        return encodedBytes;
+    }
+
+    @Benchmark
+    public long streamingV1() {
+        return stream(v1Encoder);
+    }
+
+    @Benchmark
+    public long streamingV2() {
+        return stream(v2Encoder);
+    }
+
+    private long stream(RemoteWriteEncoder encoder) {
+        long timestamp = System.currentTimeMillis();
+        for (MetricSnapshot snapshot : snapshots) {
+            exporter.process(snapshot, timestamp, encoder);
+        }
+        encoder.finishCycle();
+        return encodedBytes;
+    }
+
+    private RemoteWriteEncoder encoder(RemoteWriteProtocol protocol) {
+        RemoteWriteSink sink = new RemoteWriteSink() {
+            @Override
+            public void write(int shard, WriteRequestBuffer writeRequest) {
+                encodedBytes += writeRequest.size();
+            }
+
+            @Override
+            public RemoteWriteProtocol protocol() {
+                return protocol;
+            }
+
+            @Override
+            public int maxRequestBytes() {
+                return Integer.MAX_VALUE;
+            }
+        };
+        return new RemoteWriteEncoder(new SeriesLabelCache(SyntheticRegistry.SYSTEM_INFO),
+                MAX_SERIES_PER_REQUEST, sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        exporter.close();
+    }
+}
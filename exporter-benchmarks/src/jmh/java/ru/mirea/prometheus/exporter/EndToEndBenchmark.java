@@ -0,0 +1,149 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Full export path against a {@link MockRemoteWriteReceiver} on the loopback interface: every operation
+ * scrapes a synthetic registry, encodes it with {@link MetricExporter}, sends it through a
+ * {@link ShardedSender} and waits until the receiver has decoded every sample of the cycle. Ops/s are export
+ * cycles/s, so the inverse is the end-to-end delay of a cycle, and the {@code samples} and {@code bytes}
+ * counters give received samples/s and compressed bytes/s. Runs offline, so it can gate regressions of the
+ * whole pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EndToEndBenchmark {
+
+    private static final Duration CYCLE_TIMEOUT = Duration.ofMinutes(1);
+    private static final int SHARDS = 4;
+    private static final int QUEUE_CAPACITY = 1024;
+
+    @Param({"1000", "10000", "50000"})
+    private int cardinality;
+
+    @Param({"snappy", "zstd"})
+    private String codecName;
+
+    @Param({"V1", "V2"})
+    private RemoteWriteProtocol protocol;
+
+    @Param({"0", "20"})
+    private long receiverLatencyMillis;
+
+    private MockRemoteWriteReceiver receiver;
+    private PrometheusMeterRegistry registry;
+    private PrometheusRemoteWriteClient client;
+    private ShardedSender sender;
+    private MetricExporter exporter;
+    private final LongAdder writtenSeries = new LongAdder();
+
+    @Setup
+    public void setUp() throws IOException {
+        receiver = new MockRemoteWriteReceiver();
+        receiver.setLatency(Duration.ofMillis(receiverLatencyMillis));
+        registry = SyntheticRegistry.create(cardinality);
+        client = PrometheusRemoteWriteClient.builder()
+                .apiUrl(receiver.url())
+                .userAgent("exporter-benchmarks")
+                .authorization("benchmark")
+                .codec("zstd".equals(codecName) ? new ZstdCodec() : new SnappyCodec())
+                .protocol(protocol)
+                .build();
+        sender = new ShardedSender(client, SHARDS, SHARDS, QUEUE_CAPACITY, Duration.ofSeconds(10));
+        exporter = MetricExporter.builder()
+                .systemInfo(SyntheticRegistry.SYSTEM_INFO)
+                .meterRegistry(registry)
+                .remoteWriteSink(new CountingSink())
+                .build();
+    }
+
+    @Benchmark
+    public void exportCycle(Received received) throws InterruptedException, TimeoutException {
+        long receivedBefore = receiver.samples() + receiver.histograms();
+        long bytesBefore = receiver.compressedBytes();
+        long writtenBefore = writtenSeries.sum();
+
+        exporter.export(SyntheticRegistry.scrape(registry), System.currentTimeMillis());
+        long cycleSeries = writtenSeries.sum() - writtenBefore;
+        receiver.awaitSamples(receivedBefore + cycleSeries, CYCLE_TIMEOUT);
+
+        received.samples += cycleSeries;
+        received.bytes += receiver.compressedBytes() - bytesBefore;
+    }
+
+    @TearDown
+    public void tearDown() {
+        exporter.close();
+        sender.close();
+        client.close();
+        receiver.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Received {
+        public long samples;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            samples = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Counts the series handed to the sender, each of which carries one sample or histogram.
+     */
+    private final class CountingSink implements RemoteWriteSink {
+
+        @Override
+        public void write(int shard, WriteRequestBuffer writeRequest) {
+            writtenSeries.add(writeRequest.getSeriesCount());
+            sender.write(shard, writeRequest);
+        }
+
+        @Override
+        public int shards() {
+            return sender.shards();
+        }
+
+        @Override
+        public RemoteWriteProtocol protocol() {
+            return sender.protocol();
+        }
+
+        @Override
+        public HistogramFormat histogramFormat() {
+            return sender.histogramFormat();
+        }
+
+        @Override
+        public int maxRequestBytes() {
+            return sender.maxRequestBytes();
+        }
+
+        @Override
+        public int maxSeriesPerRequest() {
+            return sender.maxSeriesPerRequest();
+        }
+    }
+}
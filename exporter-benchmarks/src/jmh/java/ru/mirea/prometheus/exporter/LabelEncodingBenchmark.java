@@ -0,0 +1,56 @@
+package ru.mirea.prometheus.exporter;
+
+import io.prometheus.metrics.model.snapshots.Labels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per series of a label cache miss: building the canonical sorted label set with the exporter's labels
+ * merged in, encoding it and hashing it, and of the {@link SeriesHash} alone. The data point labels include an
+ * {@code env} label, so every series goes through conflict resolution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LabelEncodingBenchmark {
+
+    @Param({"3", "10", "20"})
+    private int labelCount;
+
+    @Param({"RENAME", "DROP", "HONOR"})
+    private LabelConflictPolicy conflictPolicy;
+
+    private SeriesLabelCache cache;
+    private Labels labels;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        cache = new SeriesLabelCache(SyntheticRegistry.SYSTEM_INFO, SeriesLabelCache.DEFAULT_MAX_ENTRIES,
+                conflictPolicy);
+        Labels.Builder builder = Labels.builder().label("env", "override");
+        for (int i = 1; i < labelCount; i++) {
+            builder.label("label_" + i, "value-" + i);
+        }
+        labels = builder.build();
+        encoded = cache.newEntry("http_server_requests_seconds_bucket", labels, "le", "0.25").labels;
+    }
+
+    @Benchmark
+    public SeriesLabelCache.Entry canonicalizeEncodeAndHash() {
+        return cache.newEntry("http_server_requests_seconds_bucket", labels, "le", "0.25");
+    }
+
+    @Benchmark
+    public long hash() {
+        return SeriesHash.hash(encoded);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encodes a full scrape of a large registry with a growing number of workers, to show how a cycle scales
+ * from one core to several. The threshold is zero, so every parallelism above one takes the parallel path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelProcessingBenchmark {
+
+    @Param({"10000", "50000"})
+    private int cardinality;
+
+    @Param({"1", "2", "4", "8"})
+    private int parallelism;
+
+    private MetricSnapshots snapshots;
+    private MetricExporter exporter;
+    private final LongAdder encodedBytes = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        snapshots = SyntheticRegistry.scrape(SyntheticRegistry.create(cardinality));
+        RemoteWriteSink sink = (shard, writeRequest) -> encodedBytes.add(writeRequest.size());
+        exporter = MetricExporter.builder()
+                .systemInfo(SyntheticRegistry.SYSTEM_INFO)
+                .meterRegistry(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT))
+                .remoteWriteSink(sink)
+                .parallelism(parallelism)
+                .parallelThreshold(0)
+                .build();
+    }
+
+    @Benchmark
+    public long export() {
+        exporter.export(snapshots, System.currentTimeMillis());
+        return encodedBytes.sum();
+    }
+
+    @TearDown
+    public void tearDown() {
+        exporter.close();
+    }
+}
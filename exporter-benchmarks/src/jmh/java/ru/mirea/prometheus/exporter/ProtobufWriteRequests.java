@@ -0,0 +1,111 @@
+package ru.mirea.prometheus.exporter;
+
+import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import ru.mirea.prometheus.exporter.RemoteWriteRequest.Label;
+import ru.mirea.prometheus.exporter.RemoteWriteRequest.Sample;
+import ru.mirea.prometheus.exporter.RemoteWriteRequest.TimeSeries;
+import ru.mirea.prometheus.exporter.RemoteWriteRequest.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reference implementation of the export path before the streaming encoder: every series is built as a
+ * generated {@link TimeSeries} with {@link Labels#add} copies for extra labels, collected into a list and
+ * split into {@link WriteRequest}s that are serialized with {@code toByteArray()}.
+ */
+final class ProtobufWriteRequests {
+
+    private final SystemInfo systemInfo;
+    private final int maxSeriesPerRequest;
+
+    ProtobufWriteRequests(SystemInfo systemInfo, int maxSeriesPerRequest) {
+        this.systemInfo = systemInfo;
+        this.maxSeriesPerRequest = maxSeriesPerRequest;
+    }
+
+    void write(MetricSnapshots snapshots, long timestamp, Consumer<byte[]> sink) {
+        List<TimeSeries> metrics = new ArrayList<>();
+        for (MetricSnapshot snapshot : snapshots) {
+            collect(snapshot, snapshot.getMetadata().getPrometheusName(), timestamp, metrics);
+        }
+
+        WriteRequest.Builder writeRequest = WriteRequest.newBuilder();
+        for (TimeSeries timeSeries : metrics) {
+            writeRequest.addTimeseries(timeSeries);
+            if (writeRequest.getTimeseriesCount() == maxSeriesPerRequest) {
+                sink.accept(writeRequest.build().toByteArray());
+                writeRequest.clear();
+            }
+        }
+        if (writeRequest.getTimeseriesCount() > 0) {
+            sink.accept(writeRequest.build().toByteArray());
+        }
+    }
+
+    private void collect(MetricSnapshot snapshot, String name, long timestamp, List<TimeSeries> metrics) {
+        if (snapshot instanceof CounterSnapshot counter) {
+            counter.getDataPoints().forEach(snap ->
+                    metrics.add(timeSeries(name, snap.getLabels(), snap.getValue(), timestamp)));
+        } else if (snapshot instanceof GaugeSnapshot gauge) {
+            gauge.getDataPoints().forEach(snap ->
+                    metrics.add(timeSeries(name, snap.getLabels(), snap.getValue(), timestamp)));
+        } else if (snapshot instanceof SummarySnapshot summary) {
+            summary.getDataPoints().forEach(snap -> {
+                metrics.add(timeSeries(name + "_sum", snap.getLabels(), snap.getSum(), timestamp));
+                metrics.add(timeSeries(name + "_count", snap.getLabels(), snap.getCount(), timestamp));
+                snap.getQuantiles().forEach(quantile -> {
+                    Labels labels = snap.getLabels().add("quantile", String.valueOf(quantile.getQuantile()));
+                    metrics.add(timeSeries(name, labels, quantile.getValue(), timestamp));
+                });
+            });
+        } else if (snapshot instanceof HistogramSnapshot histogram) {
+            histogram.getDataPoints().forEach(snap -> {
+                metrics.add(timeSeries(name + "_sum", snap.getLabels(), snap.getSum(), timestamp));
+                metrics.add(timeSeries(name + "_count", snap.getLabels(), snap.getCount(), timestamp));
+                long cumulativeCount = 0;
+                ClassicHistogramBuckets buckets = snap.getClassicBuckets();
+                for (int i = 0; i < buckets.size(); i++) {
+                    cumulativeCount += buckets.getCount(i);
+                    Labels labels = snap.getLabels().add("le", String.valueOf(buckets.getUpperBound(i)));
+                    metrics.add(timeSeries(name + "_bucket", labels, cumulativeCount, timestamp));
+                }
+            });
+        } else if (snapshot instanceof StateSetSnapshot stateSet) {
+            stateSet.getDataPoints().forEach(snap -> {
+                for (int i = 0; i < snap.size(); i++) {
+                    Labels labels = snap.getLabels().add("state", snap.getName(i));
+                    metrics.add(timeSeries(name + "_state", labels, snap.isTrue(i) ? 1 : 0, timestamp));
+                }
+            });
+        }
+    }
+
+    private TimeSeries timeSeries(String name, Labels labels, double value, long timestamp) {
+        TimeSeries.Builder builder = TimeSeries.newBuilder();
+        labels.forEach(label -> builder.addLabels(label(label.getName(), label.getValue())));
+        if (systemInfo.getInstance() != null) {
+            builder.addLabels(label("instance", systemInfo.getInstance()));
+        }
+        return builder
+                .addLabels(label("group", systemInfo.getGroup()))
+                .addLabels(label("system", systemInfo.getSystem()))
+                .addLabels(label("env", systemInfo.getEnv()))
+                .addLabels(label("__name__", name))
+                .addSamples(Sample.newBuilder().setValue(value).setTimestamp(timestamp).build())
+                .build();
+    }
+
+    private static Label label(String name, String value) {
+        return Label.newBuilder().setName(name).setValue(value).build();
+    }
+}
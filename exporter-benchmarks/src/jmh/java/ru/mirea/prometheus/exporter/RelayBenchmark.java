@@ -0,0 +1,80 @@
+package ru.mirea.prometheus.exporter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest throughput of {@link RemoteWriteRelay} on a single core: every operation decompresses, parses and
+ * re-batches one request as sent by a local exporter, so ops/s are requests/s. The {@code samples} counter
+ * gives samples/s, as every series of the synthetic requests carries one sample. Re-batched requests are
+ * discarded, so upstream compression and sending are not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=1")
+public class RelayBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int seriesPerRequest;
+
+    @Param({"snappy", "zstd"})
+    private String codecName;
+
+    private CompressionCodec codec;
+    private ByteBuffer body;
+    private RemoteWriteRelay relay;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = switch (codecName) {
+            case "snappy" -> new SnappyCodec();
+            case "zstd" -> new ZstdCodec();
+            default -> throw new IllegalArgumentException("Unsupported codec: " + codecName);
+        };
+        ByteBuffer request = SyntheticRegistry.encodedRequest(seriesPerRequest);
+        body = ByteBuffer.allocateDirect(codec.maxCompressedLength(request.remaining()));
+        body.limit(codec.compress(request, body));
+        relay = RemoteWriteRelay.builder()
+                .remoteWriteSink((shard, writeRequest) -> { })
+                .flushInterval(Duration.ZERO)
+                .build();
+    }
+
+    @Benchmark
+    public void accept(Samples samples) throws IOException {
+        relay.accept(body.duplicate(), codec.contentEncoding());
+        samples.samples += seriesPerRequest;
+    }
+
+    @TearDown
+    public void tearDown() {
+        relay.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Samples {
+        public long samples;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            samples = 0;
+        }
+    }
+}
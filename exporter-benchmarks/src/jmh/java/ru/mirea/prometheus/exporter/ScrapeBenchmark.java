@@ -0,0 +1,38 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of taking the registry snapshots that every export cycle starts with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScrapeBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int cardinality;
+
+    private PrometheusMeterRegistry registry;
+
+    @Setup
+    public void setUp() {
+        registry = SyntheticRegistry.create(cardinality);
+    }
+
+    @Benchmark
+    public MetricSnapshots scrape() {
+        return SyntheticRegistry.scrape(registry);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.mirea.prometheus.exporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and POSTs one encoded request to a {@link MockRemoteWriteReceiver} through
+ * {@link PrometheusRemoteWriteClient}, optionally with simulated receiver latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SendBenchmark {
+
+    @Param({"1000", "10000"})
+    private int seriesPerRequest;
+
+    @Param({"snappy", "zstd"})
+    private String codecName;
+
+    @Param({"0", "5"})
+    private long latencyMillis;
+
+    private MockRemoteWriteReceiver receiver;
+    private PrometheusRemoteWriteClient client;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteBuffer encoded = SyntheticRegistry.encodedRequest(seriesPerRequest);
+        request = new byte[encoded.remaining()];
+        encoded.get(request);
+        receiver = new MockRemoteWriteReceiver();
+        receiver.setLatency(Duration.ofMillis(latencyMillis));
+        client = PrometheusRemoteWriteClient.builder()
+                .apiUrl(receiver.url())
+                .userAgent("exporter-benchmarks")
+                .authorization("benchmark")
+                .codec("zstd".equals(codecName) ? new ZstdCodec() : new SnappyCodec())
+                .build();
+    }
+
+    @Benchmark
+    public void send() {
+        client.write(request, 0, request.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        receiver.close();
+    }
+}
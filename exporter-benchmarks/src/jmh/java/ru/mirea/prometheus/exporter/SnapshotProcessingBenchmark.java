@@ -0,0 +1,98 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link MetricExporter} processor of one snapshot type over a fixed scrape and encodes the result
+ * into discarded remote-write requests. Label blocks are cached after the first invocation, as in a running
+ * exporter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SnapshotProcessingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int cardinality;
+
+    @Param({"COUNTER", "GAUGE", "HISTOGRAM", "SUMMARY", "STATESET"})
+    private SnapshotType type;
+
+    @Param({"V1", "V2"})
+    private RemoteWriteProtocol protocol;
+
+    private List<MetricSnapshot> snapshots;
+    private MetricExporter exporter;
+    private RemoteWriteEncoder encoder;
+    private long encodedBytes;
+
+    @Setup
+    public void setUp() {
+        MetricSnapshots all = SyntheticRegistry.scrape(SyntheticRegistry.create(cardinality));
+        snapshots = SyntheticRegistry.snapshotsOfType(all, type.snapshotClass);
+
+        RemoteWriteSink sink = new RemoteWriteSink() {
+            @Override
+            public void write(int shard, WriteRequestBuffer writeRequest) {
+                encodedBytes += writeRequest.size();
+            }
+
+            @Override
+            public RemoteWriteProtocol protocol() {
+                return protocol;
+            }
+        };
+        PrometheusMeterRegistry exporterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        exporter = new MetricExporter(SyntheticRegistry.SYSTEM_INFO, 60, exporterRegistry, sink);
+        encoder = new RemoteWriteEncoder(new SeriesLabelCache(SyntheticRegistry.SYSTEM_INFO), 1000, sink);
+    }
+
+    @Benchmark
+    public long process() {
+        long timestamp = System.currentTimeMillis();
+        for (MetricSnapshot snapshot : snapshots) {
+            exporter.process(snapshot, timestamp, encoder);
+        }
+        encoder.finishCycle();
+        return encodedBytes;
+    }
+
+    @TearDown
+    public void tearDown() {
+        exporter.close();
+    }
+
+    public enum SnapshotType {
+        COUNTER(CounterSnapshot.class),
+        GAUGE(GaugeSnapshot.class),
+        HISTOGRAM(HistogramSnapshot.class),
+        SUMMARY(SummarySnapshot.class),
+        STATESET(StateSetSnapshot.class);
+
+        private final Class<? extends MetricSnapshot> snapshotClass;
+
+        SnapshotType(Class<? extends MetricSnapshot> snapshotClass) {
+            this.snapshotClass = snapshotClass;
+        }
+    }
+}
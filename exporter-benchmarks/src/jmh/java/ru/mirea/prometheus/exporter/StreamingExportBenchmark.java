@@ -0,0 +1,88 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of one export cycle over the same meters, scraping a {@code PrometheusMeterRegistry} and
+ * encoding the snapshots with {@link MetricExporter}, or publishing a {@link RemoteWriteMeterRegistry} that
+ * reads its meters straight into the encoder. With {@code filtered} only the meters of one name in ten are
+ * exported: the scrape still snapshots every meter before relabeling drops the rest, while the streaming
+ * registry never creates them. Run with the gc profiler to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StreamingExportBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int cardinality;
+
+    @Param({"false", "true"})
+    private boolean filtered;
+
+    private PrometheusMeterRegistry prometheusRegistry;
+    private MetricExporter exporter;
+    private RemoteWriteEncoder encoder;
+    private RemoteWriteMeterRegistry streamingRegistry;
+    private long encodedBytes;
+
+    @Setup
+    public void setUp() {
+        RemoteWriteSink sink = (shard, writeRequest) -> encodedBytes += writeRequest.size();
+
+        prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        SyntheticRegistry.populate(prometheusRegistry, cardinality);
+        exporter = MetricExporter.builder()
+                .systemInfo(SyntheticRegistry.SYSTEM_INFO)
+                .meterRegistry(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT))
+                .remoteWriteSink(sink)
+                .relabeler(Relabeler.builder()
+                        .keepMetrics(filtered ? "bench_0_.*" : null)
+                        .build())
+                .build();
+        encoder = new RemoteWriteEncoder(new SeriesLabelCache(SyntheticRegistry.SYSTEM_INFO), sink, null);
+
+        streamingRegistry = RemoteWriteMeterRegistry.builder()
+                .systemInfo(SyntheticRegistry.SYSTEM_INFO)
+                .remoteWriteSink(sink)
+                .includePrefixes(filtered ? List.of("bench.0.") : List.of())
+                .build();
+        SyntheticRegistry.populate(streamingRegistry, cardinality);
+    }
+
+    @Benchmark
+    public long scrape() {
+        long timestamp = System.currentTimeMillis();
+        for (MetricSnapshot snapshot : SyntheticRegistry.scrape(prometheusRegistry)) {
+            exporter.process(snapshot, timestamp, encoder);
+        }
+        encoder.finishCycle();
+        return encodedBytes;
+    }
+
+    @Benchmark
+    public long streaming() {
+        streamingRegistry.publish();
+        return encodedBytes;
+    }
+
+    @TearDown
+    public void tearDown() {
+        exporter.close();
+        streamingRegistry.close();
+    }
+}
@@ -0,0 +1,148 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.core.metrics.StateSet;
+import io.prometheus.metrics.model.registry.PrometheusScrapeRequest;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds registries with a given number of label combinations per meter type, spread over
+ * {@value #METER_NAMES} meter names. Timers publish a percentile histogram, so each of them expands into
+ * roughly 70 bucket series; their count is therefore a tenth of the cardinality.
+ */
+final class SyntheticRegistry {
+
+    static final SystemInfo SYSTEM_INFO = new SystemInfo("benchmark-group", "benchmark-system", "bench", "bench-0");
+
+    private static final int METER_NAMES = 10;
+    private static final String[] STATES = {"running", "paused", "stopped"};
+
+    private SyntheticRegistry() {
+    }
+
+    static PrometheusMeterRegistry create(int cardinality) {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        populate(registry, cardinality);
+        for (int n = 0; n < METER_NAMES; n++) {
+            StateSet stateSet = StateSet.builder()
+                    .name("bench_" + n + "_state")
+                    .help("Synthetic state set")
+                    .labelNames("id")
+                    .states(STATES)
+                    .register(registry.getPrometheusRegistry());
+            for (int i = n; i < cardinality; i += METER_NAMES) {
+                stateSet.labelValues(String.valueOf(i / METER_NAMES)).setTrue(STATES[i % STATES.length]);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Registers and records the Micrometer meters of {@link #create(int)}, without the Prometheus-only state sets.
+     */
+    static void populate(MeterRegistry registry, int cardinality) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < cardinality; i++) {
+            String name = "bench." + (i % METER_NAMES);
+            String id = String.valueOf(i / METER_NAMES);
+
+            Counter.builder(name + ".events")
+                    .tag("id", id)
+                    .tag("kind", i % 2 == 0 ? "even" : "odd")
+                    .register(registry)
+                    .increment(random.nextInt(1000));
+
+            double gaugeValue = random.nextDouble();
+            Gauge.builder(name + ".level", () -> gaugeValue)
+                    .tag("id", id)
+                    .strongReference(true)
+                    .register(registry);
+
+            DistributionSummary summary = DistributionSummary.builder(name + ".payload")
+                    .tag("id", id)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry);
+            for (int j = 0; j < 10; j++) {
+                summary.record(random.nextInt(10_000));
+            }
+
+            if (i % 10 == 0) {
+                Timer timer = Timer.builder(name + ".latency")
+                        .tag("id", id)
+                        .publishPercentileHistogram()
+                        .register(registry);
+                for (int j = 0; j < 10; j++) {
+                    timer.record(Duration.ofMillis(random.nextInt(1000)));
+                }
+            }
+        }
+    }
+
+    static MetricSnapshots scrape(PrometheusMeterRegistry registry) {
+        return registry.getPrometheusRegistry().scrape((PrometheusScrapeRequest) null);
+    }
+
+    /**
+     * Encodes the first {@code seriesCount} series of a registry large enough to hold them into a single
+     * 1.0 request and returns a copy of its bytes in a direct buffer.
+     */
+    static ByteBuffer encodedRequest(int seriesCount) {
+        ByteBuffer[] request = new ByteBuffer[1];
+        RemoteWriteSink sink = new RemoteWriteSink() {
+            @Override
+            public void write(int shard, WriteRequestBuffer writeRequest) {
+                if (request[0] == null && writeRequest.getSeriesCount() == seriesCount) {
+                    ByteBuffer encoded = writeRequest.buffer();
+                    request[0] = ByteBuffer.allocateDirect(encoded.remaining()).put(encoded).flip();
+                }
+            }
+
+            @Override
+            public int maxSeriesPerRequest() {
+                return seriesCount;
+            }
+
+            @Override
+            public int maxRequestBytes() {
+                return Integer.MAX_VALUE;
+            }
+        };
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder(new SeriesLabelCache(SYSTEM_INFO), sink, null);
+        PrometheusMeterRegistry source = create(Math.max(100, seriesCount / 10));
+        MetricExporter exporter = new MetricExporter(SYSTEM_INFO, 60,
+                new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), (shard, writeRequest) -> { });
+        long timestamp = System.currentTimeMillis();
+        for (MetricSnapshot snapshot : scrape(source)) {
+            exporter.process(snapshot, timestamp, encoder);
+        }
+        encoder.finishCycle();
+        exporter.close();
+        if (request[0] == null) {
+            throw new IllegalStateException("Registry holds less than " + seriesCount + " series");
+        }
+        return request[0];
+    }
+
+    static List<MetricSnapshot> snapshotsOfType(MetricSnapshots snapshots, Class<? extends MetricSnapshot> type) {
+        List<MetricSnapshot> result = new ArrayList<>();
+        for (MetricSnapshot snapshot : snapshots) {
+            if (type.isInstance(snapshot)) {
+                result.add(snapshot);
+            }
+        }
+        return result;
+    }
+}
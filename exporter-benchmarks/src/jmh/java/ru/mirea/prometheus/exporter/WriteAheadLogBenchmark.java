@@ -0,0 +1,79 @@
+package ru.mirea.prometheus.exporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appends compressed-request-sized records to a {@link WriteAheadLog} in a temporary directory, alone and
+ * together with reading and acknowledging them as the replay thread does. Disk usage is capped, so appending
+ * alone also exercises segment rotation and dropping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WriteAheadLogBenchmark {
+
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+    @Param({"4096", "65536"})
+    private int recordSize;
+
+    private Path directory;
+    private WriteAheadLog writeAheadLog;
+    private ByteBuffer record;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES);
+        byte[] data = new byte[recordSize];
+        ThreadLocalRandom.current().nextBytes(data);
+        record = ByteBuffer.allocateDirect(recordSize).put(data).flip();
+    }
+
+    @Benchmark
+    public void append() {
+        writeAheadLog.append(0, record.duplicate());
+    }
+
+    @Benchmark
+    public WriteAheadLog.Record appendAndReplay() throws InterruptedException {
+        writeAheadLog.append(0, record.duplicate());
+        WriteAheadLog.Record replayed = writeAheadLog.next(0, TimeUnit.MILLISECONDS);
+        writeAheadLog.ack();
+        return replayed;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writeAheadLog.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ru.mirea.prometheus.exporter;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates the data points of metrics whose Prometheus name matches a regex over all labels but the
+ * {@code without} ones, like PromQL's {@code sum without (...)}. Counters and classic histograms are summed,
+ * gauges take the maximum or the last value of their group.
+ */
+@Getter
+public class AggregationRule {
+
+    private final Pattern metrics;
+    private final Set<String> without;
+    private final GaugeAggregation gaugeAggregation;
+
+    public AggregationRule(String metrics, Collection<String> without, GaugeAggregation gaugeAggregation) {
+        if (without.isEmpty()) {
+            throw new IllegalArgumentException("Without must name at least one label");
+        }
+        this.metrics = Pattern.compile(metrics);
+        this.without = Set.copyOf(without);
+        this.gaugeAggregation = gaugeAggregation != null ? gaugeAggregation : GaugeAggregation.MAX;
+    }
+
+    boolean matches(String metricName) {
+        return metrics.matcher(metricName).matches();
+    }
+
+    /**
+     * Parses rules of the form {@code <metric regex>=<label>,<label>[:max|last]} separated by {@code ;}, for
+     * example {@code http_server_requests_seconds=instance,uri;kafka_.*=partition:last}.
+     */
+    public static List<AggregationRule> parse(String spec) {
+        List<AggregationRule> rules = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            return rules;
+        }
+        for (String rule : spec.split(";")) {
+            if (rule.isBlank()) {
+                continue;
+            }
+            int equals = rule.lastIndexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Invalid aggregation rule: " + rule);
+            }
+            String labels = rule.substring(equals + 1).trim();
+            GaugeAggregation gaugeAggregation = null;
+            int colon = labels.indexOf(':');
+            if (colon >= 0) {
+                gaugeAggregation = GaugeAggregation.valueOf(labels.substring(colon + 1).trim().toUpperCase());
+                labels = labels.substring(0, colon);
+            }
+            List<String> without = new ArrayList<>();
+            for (String label : labels.split(",")) {
+                if (!label.isBlank()) {
+                    without.add(label.trim());
+                }
+            }
+            rules.add(new AggregationRule(rule.substring(0, equals).trim(), without, gaugeAggregation));
+        }
+        return rules;
+    }
+
+    public enum GaugeAggregation {
+        MAX,
+        LAST
+    }
+}
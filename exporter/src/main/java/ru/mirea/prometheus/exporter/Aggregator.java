@@ -0,0 +1,347 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import ru.mirea.prometheus.exporter.AggregationRule.GaugeAggregation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Groups the data points of metrics matched by an {@link AggregationRule} by their remaining labels.
+ * <p>
+ * Every metric has an open-addressing table of groups keyed by a 64-bit hash of the remaining labels, which is
+ * computed from the data point labels without building the reduced label set. Groups and their reduced labels
+ * are kept between cycles and their accumulators live in primitive arrays, so once all groups have been seen
+ * aggregating a cycle does not allocate. Groups that were not seen during a cycle are dropped when they make up
+ * most of the table. It is not thread-safe; parallel encoders use one aggregator each.
+ */
+final class Aggregator {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<AggregationRule> rules;
+    private final Map<String, MetricGroups> metrics = new HashMap<>();
+    private final MetricGroups notAggregated = new MetricGroups(Set.of(), GaugeAggregation.MAX);
+
+    private volatile long aggregatedDataPoints;
+    private volatile long emittedGroups;
+
+    Aggregator(List<AggregationRule> rules) {
+        this.rules = List.copyOf(rules);
+    }
+
+    /**
+     * Registers the aggregation meters once for a group of aggregators used side by side, reporting their sums.
+     */
+    static void bindTo(MeterRegistry registry, List<Aggregator> aggregators) {
+        FunctionCounter.builder("exporter.aggregation.data.points", aggregators,
+                        all -> sum(all, aggregator -> aggregator.aggregatedDataPoints))
+                .description("Data points folded into aggregated series")
+                .register(registry);
+        FunctionCounter.builder("exporter.aggregation.series", aggregators,
+                        all -> sum(all, aggregator -> aggregator.emittedGroups))
+                .description("Aggregated series sent")
+                .register(registry);
+    }
+
+    private static double sum(List<Aggregator> aggregators, ToLongFunction<Aggregator> value) {
+        long sum = 0;
+        for (Aggregator aggregator : aggregators) {
+            sum += value.applyAsLong(aggregator);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the groups of a metric, or {@code null} if no rule matches it.
+     */
+    MetricGroups groups(String metricName) {
+        MetricGroups groups = metrics.get(metricName);
+        if (groups == null) {
+            groups = notAggregated;
+            for (AggregationRule rule : rules) {
+                if (rule.matches(metricName)) {
+                    groups = new MetricGroups(rule.getWithout(), rule.getGaugeAggregation());
+                    break;
+                }
+            }
+            metrics.put(metricName, groups);
+        }
+        return groups == notAggregated ? null : groups;
+    }
+
+    /**
+     * Groups of one metric. A cycle starts with {@link #begin()}, adds data points to their {@link #group(Labels)}
+     * and, after the groups touched during the cycle were read, ends with {@link #finish()}.
+     */
+    final class MetricGroups {
+
+        private final Set<String> without;
+        private final GaugeAggregation gaugeAggregation;
+
+        private int[] table = new int[INITIAL_CAPACITY * 2];
+        private long[] hashes = new long[INITIAL_CAPACITY];
+        private Labels[] labels = new Labels[INITIAL_CAPACITY];
+        private double[] values = new double[INITIAL_CAPACITY];
+        private long[] counts = new long[INITIAL_CAPACITY];
+        private int[] members = new int[INITIAL_CAPACITY];
+        private int[] seenCycle = new int[INITIAL_CAPACITY];
+        private int[] touched = new int[INITIAL_CAPACITY];
+        private double[] upperBounds;
+        private long[] bucketCounts;
+        private int size;
+        private int touchedCount;
+        private int cycle;
+
+        private MetricGroups(Set<String> without, GaugeAggregation gaugeAggregation) {
+            this.without = without;
+            this.gaugeAggregation = gaugeAggregation;
+        }
+
+        void begin() {
+            cycle++;
+            touchedCount = 0;
+        }
+
+        /**
+         * Returns the group of the given labels, creating it on first sight and resetting its accumulators
+         * the first time it is touched in a cycle.
+         */
+        int group(Labels dataPointLabels) {
+            long hash = hash(dataPointLabels);
+            int mask = table.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (table[slot] != 0) {
+                int group = table[slot] - 1;
+                if (hashes[group] == hash && sameGroup(labels[group], dataPointLabels)) {
+                    return touch(group);
+                }
+                slot = (slot + 1) & mask;
+            }
+            int group = size++;
+            if (group == hashes.length) {
+                grow(hashes.length << 1);
+            }
+            hashes[group] = hash;
+            labels[group] = reduce(dataPointLabels);
+            seenCycle[group] = cycle - 1;
+            table[slot] = group + 1;
+            if (size << 1 > table.length) {
+                rehash(table.length << 1);
+            }
+            return touch(group);
+        }
+
+        void addCounter(int group, double value) {
+            values[group] += value;
+            members[group]++;
+            aggregatedDataPoints++;
+        }
+
+        void addGauge(int group, double value) {
+            if (members[group] == 0 || gaugeAggregation == GaugeAggregation.LAST) {
+                values[group] = value;
+            } else {
+                values[group] = Math.max(values[group], value);
+            }
+            members[group]++;
+            aggregatedDataPoints++;
+        }
+
+        /**
+         * Returns whether classic buckets can be added to the groups, which is the case if they have the same
+         * upper bounds as the first histogram data point of the metric.
+         */
+        boolean acceptsBuckets(ClassicHistogramBuckets buckets) {
+            if (upperBounds == null) {
+                return true;
+            }
+            if (buckets.size() != upperBounds.length) {
+                return false;
+            }
+            for (int i = 0; i < upperBounds.length; i++) {
+                if (buckets.getUpperBound(i) != upperBounds[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds the sum and the classic buckets of a data point, which must be {@link #acceptsBuckets accepted}.
+         */
+        void addHistogram(int group, HistogramSnapshot.HistogramDataPointSnapshot snap) {
+            ClassicHistogramBuckets buckets = snap.getClassicBuckets();
+            if (upperBounds == null) {
+                upperBounds = new double[buckets.size()];
+                for (int i = 0; i < upperBounds.length; i++) {
+                    upperBounds[i] = buckets.getUpperBound(i);
+                }
+                bucketCounts = new long[hashes.length * upperBounds.length];
+            }
+            int offset = group * upperBounds.length;
+            for (int i = 0; i < upperBounds.length; i++) {
+                long count = buckets.getCount(i);
+                bucketCounts[offset + i] += count;
+                counts[group] += count;
+            }
+            if (snap.hasSum()) {
+                values[group] += snap.getSum();
+            }
+            members[group]++;
+            aggregatedDataPoints++;
+        }
+
+        int touchedCount() {
+            return touchedCount;
+        }
+
+        int touchedGroup(int index) {
+            return touched[index];
+        }
+
+        Labels labels(int group) {
+            return labels[group];
+        }
+
+        /**
+         * Returns the aggregated counter or gauge value, or the histogram sum.
+         */
+        double value(int group) {
+            return values[group];
+        }
+
+        long count(int group) {
+            return counts[group];
+        }
+
+        int buckets() {
+            return upperBounds != null ? upperBounds.length : 0;
+        }
+
+        double upperBound(int bucket) {
+            return upperBounds[bucket];
+        }
+
+        long bucketCount(int group, int bucket) {
+            return bucketCounts[group * upperBounds.length + bucket];
+        }
+
+        /**
+         * Ends the cycle and drops the groups that were not touched, if they make up most of the table.
+         */
+        void finish() {
+            emittedGroups += touchedCount;
+            if (size > INITIAL_CAPACITY && touchedCount << 2 < size) {
+                compact();
+            }
+        }
+
+        private int touch(int group) {
+            if (seenCycle[group] != cycle) {
+                seenCycle[group] = cycle;
+                values[group] = 0;
+                counts[group] = 0;
+                members[group] = 0;
+                if (bucketCounts != null) {
+                    int offset = group * upperBounds.length;
+                    Arrays.fill(bucketCounts, offset, offset + upperBounds.length, 0);
+                }
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touched.length << 1);
+                }
+                touched[touchedCount++] = group;
+            }
+            return group;
+        }
+
+        private long hash(Labels dataPointLabels) {
+            long hash = 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < dataPointLabels.size(); i++) {
+                String name = dataPointLabels.getName(i);
+                if (!without.contains(name)) {
+                    hash = (hash ^ name.hashCode()) * 0xFF51AFD7ED558CCDL;
+                    hash = (hash ^ dataPointLabels.getValue(i).hashCode()) * 0xC4CEB9FE1A85EC53L;
+                }
+            }
+            return hash ^ (hash >>> 33);
+        }
+
+        private boolean sameGroup(Labels groupLabels, Labels dataPointLabels) {
+            int next = 0;
+            for (int i = 0; i < dataPointLabels.size(); i++) {
+                String name = dataPointLabels.getName(i);
+                if (without.contains(name)) {
+                    continue;
+                }
+                if (next == groupLabels.size()
+                        || !groupLabels.getName(next).equals(name)
+                        || !groupLabels.getValue(next).equals(dataPointLabels.getValue(i))) {
+                    return false;
+                }
+                next++;
+            }
+            return next == groupLabels.size();
+        }
+
+        private Labels reduce(Labels dataPointLabels) {
+            Labels.Builder builder = Labels.builder();
+            for (int i = 0; i < dataPointLabels.size(); i++) {
+                String name = dataPointLabels.getName(i);
+                if (!without.contains(name)) {
+                    builder.label(name, dataPointLabels.getValue(i));
+                }
+            }
+            return builder.build();
+        }
+
+        private void grow(int capacity) {
+            hashes = Arrays.copyOf(hashes, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            members = Arrays.copyOf(members, capacity);
+            seenCycle = Arrays.copyOf(seenCycle, capacity);
+            if (bucketCounts != null) {
+                bucketCounts = Arrays.copyOf(bucketCounts, capacity * upperBounds.length);
+            }
+        }
+
+        private void rehash(int tableCapacity) {
+            table = new int[tableCapacity];
+            int mask = tableCapacity - 1;
+            for (int group = 0; group < size; group++) {
+                long hash = hashes[group];
+                int slot = (int) (hash ^ (hash >>> 32)) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = group + 1;
+            }
+        }
+
+        private void compact() {
+            int kept = 0;
+            for (int group = 0; group < size; group++) {
+                if (seenCycle[group] == cycle) {
+                    hashes[kept] = hashes[group];
+                    labels[kept] = labels[group];
+                    seenCycle[kept] = cycle;
+                    kept++;
+                }
+            }
+            Arrays.fill(labels, kept, size, null);
+            size = kept;
+            touchedCount = 0;
+            rehash(table.length);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.mirea.prometheus.exporter;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the remaining bytes of a buffer as the request body without copying them into a heap array.
+ * Every subscription gets its own view of the buffer, so the same publisher can be used for retries.
+ */
+class ByteBufferBodyPublisher implements HttpRequest.BodyPublisher {
+
+    private final ByteBuffer body;
+
+    ByteBufferBodyPublisher(ByteBuffer body) {
+        this.body = body;
+    }
+
+    @Override
+    public long contentLength() {
+        return body.remaining();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            private final AtomicBoolean done = new AtomicBoolean();
+
+            @Override
+            public void request(long n) {
+                if (done.get()) {
+                    return;
+                }
+                if (n <= 0) {
+                    done.set(true);
+                    subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+                    return;
+                }
+                if (done.compareAndSet(false, true)) {
+                    subscriber.onNext(body.duplicate());
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                done.set(true);
+            }
+        });
+    }
+}
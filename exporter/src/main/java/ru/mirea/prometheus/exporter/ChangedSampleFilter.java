@@ -0,0 +1,152 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Suppresses samples whose value did not change since they were last sent. A sample is still sent once the
+ * heartbeat interval has elapsed, so that unchanged series do not go stale in the TSDB; the heartbeat should
+ * stay below the query lookback (5 minutes by default in Prometheus and VictoriaMetrics).
+ * <p>
+ * State is kept per series id in an open-addressing table of primitive arrays. Series that were not seen
+ * during a cycle are dropped by {@link #sweep()}. It is not thread-safe.
+ */
+public class ChangedSampleFilter implements MeterBinder {
+
+    public static final Duration DEFAULT_HEARTBEAT = Duration.ofMinutes(4);
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long EMPTY = 0;
+
+    private final long heartbeatMillis;
+
+    private long[] ids;
+    private long[] valueBits;
+    private long[] sentAt;
+    private int[] seenCycle;
+    private int size;
+    private int cycle;
+
+    private volatile long emitted;
+    private volatile long suppressed;
+
+    public ChangedSampleFilter() {
+        this(DEFAULT_HEARTBEAT);
+    }
+
+    public ChangedSampleFilter(Duration heartbeat) {
+        if (heartbeat.isNegative() || heartbeat.isZero()) {
+            throw new IllegalArgumentException("Heartbeat must be greater than 0");
+        }
+        this.heartbeatMillis = heartbeat.toMillis();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindTo(registry, List.of(this));
+    }
+
+    /**
+     * Registers the filter meters once for a group of filters used side by side, reporting their sums.
+     */
+    static void bindTo(MeterRegistry registry, List<ChangedSampleFilter> filters) {
+        FunctionCounter.builder("exporter.samples", filters, all -> sum(all, filter -> filter.emitted))
+                .tag("result", "emitted")
+                .register(registry);
+        FunctionCounter.builder("exporter.samples", filters, all -> sum(all, filter -> filter.suppressed))
+                .tag("result", "suppressed")
+                .register(registry);
+        Gauge.builder("exporter.samples.tracked.series", filters, all -> sum(all, filter -> filter.size))
+                .register(registry);
+    }
+
+    private static double sum(List<ChangedSampleFilter> filters, ToLongFunction<ChangedSampleFilter> value) {
+        long sum = 0;
+        for (ChangedSampleFilter filter : filters) {
+            sum += value.applyAsLong(filter);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns whether the sample has to be sent and, if so, remembers it as the last sent one.
+     */
+    boolean shouldSend(long seriesId, double value, long timestamp) {
+        long id = seriesId == EMPTY ? 1 : seriesId;
+        long bits = Double.doubleToRawLongBits(value);
+        int slot = slot(id);
+        if (ids[slot] == id) {
+            seenCycle[slot] = cycle;
+            if (valueBits[slot] == bits && timestamp - sentAt[slot] < heartbeatMillis) {
+                suppressed++;
+                return false;
+            }
+        } else {
+            ids[slot] = id;
+            seenCycle[slot] = cycle;
+            if (++size << 1 > ids.length) {
+                rehash(ids.length << 1, -1);
+                slot = slot(id);
+            }
+        }
+        valueBits[slot] = bits;
+        sentAt[slot] = timestamp;
+        emitted++;
+        return true;
+    }
+
+    /**
+     * Forgets series that were not seen since the previous sweep and starts a new cycle.
+     */
+    void sweep() {
+        int capacity = ids.length;
+        while (capacity > INITIAL_CAPACITY && size << 3 < capacity) {
+            capacity >>= 1;
+        }
+        rehash(capacity, cycle);
+        cycle++;
+    }
+
+    private int slot(long id) {
+        int mask = ids.length - 1;
+        int slot = (int) (id ^ (id >>> 32)) & mask;
+        while (ids[slot] != EMPTY && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity, int keepCycle) {
+        long[] oldIds = ids;
+        long[] oldValueBits = valueBits;
+        long[] oldSentAt = sentAt;
+        int[] oldSeenCycle = seenCycle;
+        allocate(capacity);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] == EMPTY || (keepCycle >= 0 && oldSeenCycle[i] != keepCycle)) {
+                continue;
+            }
+            int slot = slot(oldIds[i]);
+            ids[slot] = oldIds[i];
+            valueBits[slot] = oldValueBits[i];
+            sentAt[slot] = oldSentAt[i];
+            seenCycle[slot] = oldSeenCycle[i];
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        valueBits = new long[capacity];
+        sentAt = new long[capacity];
+        seenCycle = new int[capacity];
+        size = 0;
+    }
+}
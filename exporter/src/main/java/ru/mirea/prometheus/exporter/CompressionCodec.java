@@ -0,0 +1,36 @@
+package ru.mirea.prometheus.exporter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression applied to the remote-write request body, advertised through {@code Content-Encoding}.
+ * Implementations must be safe for use from several threads.
+ */
+public interface CompressionCodec {
+
+    String contentEncoding();
+
+    int maxCompressedLength(int uncompressedLength);
+
+    /**
+     * Compresses the remaining bytes of {@code uncompressed} into {@code compressed} starting at its position.
+     * Both buffers are direct.
+     *
+     * @return the number of compressed bytes written
+     */
+    int compress(ByteBuffer uncompressed, ByteBuffer compressed) throws IOException;
+
+    /**
+     * Returns the uncompressed length declared by the remaining compressed bytes of a direct buffer.
+     */
+    int uncompressedLength(ByteBuffer compressed) throws IOException;
+
+    /**
+     * Decompresses the remaining bytes of {@code compressed} into {@code uncompressed} starting at its position.
+     * Both buffers are direct.
+     *
+     * @return the number of uncompressed bytes written
+     */
+    int decompress(ByteBuffer compressed, ByteBuffer uncompressed) throws IOException;
+}
@@ -0,0 +1,73 @@
+package ru.mirea.prometheus.exporter;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Pool of direct {@link ByteBuffer}s grouped in power-of-two size classes, so that large request bodies
+ * are not allocated per request and never land on the Java heap.
+ */
+public class DirectBufferPool {
+
+    public static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 16;
+
+    private static final int MIN_SIZE_CLASS = 12;
+    private static final int MAX_SIZE_CLASS = 30;
+
+    private final int maxBuffersPerClass;
+    private final Queue<ByteBuffer>[] pools;
+    private final AtomicIntegerArray pooled;
+
+    public DirectBufferPool() {
+        this(DEFAULT_MAX_BUFFERS_PER_CLASS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(int maxBuffersPerClass) {
+        this.maxBuffersPerClass = maxBuffersPerClass;
+        this.pools = new Queue[MAX_SIZE_CLASS + 1];
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.pooled = new AtomicIntegerArray(MAX_SIZE_CLASS + 1);
+    }
+
+    /**
+     * Returns a cleared direct buffer with at least the requested capacity.
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass > MAX_SIZE_CLASS) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        ByteBuffer buffer = pools[sizeClass].poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(1 << sizeClass);
+        }
+        pooled.decrementAndGet(sizeClass);
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if (sizeClass < MIN_SIZE_CLASS || sizeClass > MAX_SIZE_CLASS) {
+            return;
+        }
+        if (pooled.incrementAndGet(sizeClass) > maxBuffersPerClass) {
+            pooled.decrementAndGet(sizeClass);
+            return;
+        }
+        pools[sizeClass].offer(buffer);
+    }
+
+    private static int sizeClass(int capacity) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(MIN_SIZE_CLASS, sizeClass);
+    }
+}
@@ -0,0 +1,118 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends every encoded request to several remote-write endpoints. Requests are encoded once and handed to a
+ * {@link ShardedSender} per endpoint, which compresses them with its own codec and queues them with its own
+ * shards, retry policy and {@link QueueOverflowPolicy}. A full queue only drops requests of its own endpoint,
+ * so a slow endpoint never delays the others.
+ * <p>
+ * Requests are cut to fit every endpoint and encoded with the lowest protocol and histogram format among them.
+ * The encoder routes series to as many shards as the busiest endpoint uses, and every endpoint maps them onto
+ * its own shards, so samples of one series still reach each endpoint in order. Every sender reshards on its own
+ * thread, so asking for the shard count only reads their current counts and never waits for a drain.
+ */
+public class FanOutSink implements RemoteWriteSink, MeterBinder {
+
+    private static final String ENDPOINT_TAG = "endpoint";
+
+    private final String[] names;
+    private final ShardedSender[] senders;
+    private volatile int[] senderShards;
+
+    /**
+     * Creates a sink sending to the given senders, keyed by the endpoint name their meters are tagged with.
+     */
+    public FanOutSink(Map<String, ShardedSender> senders) {
+        if (senders.isEmpty()) {
+            throw new IllegalArgumentException("Senders must not be empty");
+        }
+        Map<String, ShardedSender> ordered = new LinkedHashMap<>(senders);
+        this.names = ordered.keySet().toArray(String[]::new);
+        this.senders = ordered.values().toArray(ShardedSender[]::new);
+        this.senderShards = new int[this.senders.length];
+        Arrays.fill(senderShards, 1);
+    }
+
+    /**
+     * Returns the shard count of the busiest endpoint and remembers every sender's count for routing the
+     * requests that follow.
+     */
+    @Override
+    public int shards() {
+        int[] current = new int[senders.length];
+        int shards = 1;
+        for (int i = 0; i < senders.length; i++) {
+            current[i] = senders[i].shards();
+            shards = Math.max(shards, current[i]);
+        }
+        senderShards = current;
+        return shards;
+    }
+
+    @Override
+    public RemoteWriteProtocol protocol() {
+        RemoteWriteProtocol protocol = RemoteWriteProtocol.V2;
+        for (ShardedSender sender : senders) {
+            if (sender.protocol().ordinal() < protocol.ordinal()) {
+                protocol = sender.protocol();
+            }
+        }
+        return protocol;
+    }
+
+    @Override
+    public HistogramFormat histogramFormat() {
+        HistogramFormat histogramFormat = HistogramFormat.NATIVE_WITH_CUSTOM_BUCKETS;
+        for (ShardedSender sender : senders) {
+            if (sender.histogramFormat().ordinal() < histogramFormat.ordinal()) {
+                histogramFormat = sender.histogramFormat();
+            }
+        }
+        return histogramFormat;
+    }
+
+    @Override
+    public int maxRequestBytes() {
+        int maxRequestBytes = Integer.MAX_VALUE;
+        for (ShardedSender sender : senders) {
+            maxRequestBytes = Math.min(maxRequestBytes, sender.maxRequestBytes());
+        }
+        return maxRequestBytes;
+    }
+
+    @Override
+    public int maxSeriesPerRequest() {
+        int maxSeriesPerRequest = Integer.MAX_VALUE;
+        for (ShardedSender sender : senders) {
+            maxSeriesPerRequest = Math.min(maxSeriesPerRequest, sender.maxSeriesPerRequest());
+        }
+        return maxSeriesPerRequest;
+    }
+
+    @Override
+    public void write(int shard, WriteRequestBuffer writeRequest) {
+        int[] shards = senderShards;
+        for (int i = 0; i < senders.length; i++) {
+            senders[i].write(shard % shards[i], writeRequest);
+        }
+    }
+
+    /**
+     * Registers the meters of every sender and its client tagged with the endpoint name, so latency, backlog
+     * and drops can be told apart per endpoint.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (int i = 0; i < senders.length; i++) {
+            senders[i].bindTo(registry, Tags.of(ENDPOINT_TAG, names[i]));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package ru.mirea.prometheus.exporter;
+
+/**
+ * How histograms are sent to a receiver.
+ */
+public enum HistogramFormat {
+
+    /**
+     * One {@code _bucket} series per classic bucket plus {@code _sum} and {@code _count}. Native data is only
+     * sent with {@link RemoteWriteProtocol#V2}, where every receiver has to accept it.
+     */
+    CLASSIC,
+
+    /**
+     * Native histogram data is sent as such with both protocol versions, classic data as bucket series.
+     */
+    NATIVE,
+
+    /**
+     * Like {@link #NATIVE}, and classic-only data is sent as a native histogram with custom buckets
+     * (schema -53), one series per histogram instead of one per bucket.
+     */
+    NATIVE_WITH_CUSTOM_BUCKETS
+}
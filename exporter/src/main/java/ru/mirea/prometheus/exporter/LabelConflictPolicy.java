@@ -0,0 +1,26 @@
+package ru.mirea.prometheus.exporter;
+
+/**
+ * What happens to a data point label whose name is already taken by a label the exporter adds itself: the
+ * {@link SystemInfo} labels, {@code __name__} and the {@code le} or {@code quantile} label of a bucket or
+ * quantile series. {@code __name__}, {@code le} and {@code quantile} always keep the exporter's value.
+ */
+public enum LabelConflictPolicy {
+
+    /**
+     * The data point label is kept as {@code exported_<name>}, like Prometheus does with
+     * {@code honor_labels: false}. It is dropped if that name is taken as well.
+     */
+    RENAME,
+
+    /**
+     * The data point label is dropped.
+     */
+    DROP,
+
+    /**
+     * The data point label replaces a {@link SystemInfo} label, like Prometheus does with
+     * {@code honor_labels: true}. Conflicts with {@code __name__}, {@code le} and {@code quantile} are renamed.
+     */
+    HONOR
+}
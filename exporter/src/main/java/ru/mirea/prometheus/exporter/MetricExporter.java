@@ -1,38 +1,73 @@
 package ru.mirea.prometheus.exporter;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
 import io.prometheus.metrics.model.registry.PrometheusScrapeRequest;
 import io.prometheus.metrics.model.snapshots.*;
+import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.function.TriFunction;
-import ru.mirea.prometheus.exporter.RemoteWriteRequest.Label;
-import ru.mirea.prometheus.exporter.RemoteWriteRequest.Sample;
-import ru.mirea.prometheus.exporter.RemoteWriteRequest.TimeSeries;
-import ru.mirea.prometheus.exporter.RemoteWriteRequest.WriteRequest;
+import ru.mirea.prometheus.exporter.Aggregator.MetricGroups;
+import ru.mirea.prometheus.exporter.Relabeler.MetricRules;
+import ru.mirea.prometheus.exporter.RemoteWriteEncoder.MetricType;
 
-import java.time.OffsetDateTime;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Periodically exports the registry through a {@link RemoteWriteSink}.
+ * <p>
+ * Cycles run one at a time on a dedicated thread and are scheduled at wall-clock multiples of the send
+ * interval; samples carry the timestamp of their tick, so series from different instances line up. A cycle
+ * that runs past the next tick does not queue up another one: missed ticks are skipped and counted, and the
+ * next cycle starts at the first tick after the slow one finished.
+ * <p>
+ * With a parallelism above one, scrapes with at least {@code parallelThreshold} data points are partitioned
+ * by metric name across a dedicated fork-join pool. Every worker has its own encoder, label cache and sample
+ * filter and hands its requests to the sink directly, which therefore has to be thread-safe. A metric always
+ * lands on the same worker, so its cached label blocks are reused across cycles.
+ * <p>
+ * Series are named after the Prometheus name of their metric, so counters are sent without the {@code _total}
+ * suffix of the exposition format. {@link RemoteWriteMeterRegistry} sends the same names.
+ */
 @Slf4j
 public class MetricExporter implements AutoCloseable {
 
-    private static final int MAX_SAMPLES_PER_SEND = 1000;
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 50_000;
+
     private static final int DEFAULT_SEND_INTERVAL_SECONDS = 60;
 
     private final SystemInfo systemInfo;
     private final int sendIntervalSeconds;
-    private final PrometheusRemoteWriteClient remoteWriteClient;
+    private final RemoteWriteSink remoteWriteSink;
+    private final Relabeler relabeler;
     private final PrometheusMeterRegistry meterRegistry;
 
-    private final ScheduledExecutorService executorService;
-    private final Map<Class<? extends MetricSnapshot>, TriFunction<MetricSnapshot, String, Long, List<TimeSeries>>> processors;
+    private final ScheduledThreadPoolExecutor executorService;
+    private final RemoteWriteEncoder[] encoders;
+    private final Aggregator[] aggregators;
+    private final CycleSettingsSink cycleSettings;
+    private final ForkJoinPool workerPool;
+    private final int parallelThreshold;
+    private final Map<Class<? extends MetricSnapshot>, SnapshotProcessor> processors;
+
+    private final Timer scrapeTimer;
+    private final Timer encodeTimer;
+    private final Counter cycleOverruns;
+    private final Counter skippedTicks;
+    private volatile long lagMillis;
 
     public MetricExporter(SystemInfo systemInfo,
                           PrometheusMeterRegistry meterRegistry,
@@ -43,14 +78,123 @@ public class MetricExporter implements AutoCloseable {
     public MetricExporter(SystemInfo systemInfo, int sendIntervalSeconds,
                           PrometheusMeterRegistry meterRegistry,
                           PrometheusRemoteWriteClient remoteWriteClient) {
+        this(systemInfo, sendIntervalSeconds, meterRegistry, (RemoteWriteSink) remoteWriteClient);
+    }
+
+    public MetricExporter(SystemInfo systemInfo, int sendIntervalSeconds,
+                          PrometheusMeterRegistry meterRegistry,
+                          RemoteWriteSink remoteWriteSink) {
+        this(systemInfo, sendIntervalSeconds, meterRegistry, remoteWriteSink, null);
+    }
+
+    /**
+     * Creates an exporter that only sends samples whose value changed since they were last sent, or once per
+     * {@code deltaHeartbeat} otherwise. A {@code null} heartbeat sends every sample every cycle.
+     */
+    public MetricExporter(SystemInfo systemInfo, int sendIntervalSeconds,
+                          PrometheusMeterRegistry meterRegistry,
+                          RemoteWriteSink remoteWriteSink, Duration deltaHeartbeat) {
+        this(systemInfo, sendIntervalSeconds, meterRegistry, remoteWriteSink, deltaHeartbeat, null, null, null, null,
+                null, null);
+    }
+
+    /**
+     * Creates an exporter encoding on up to {@code parallelism} threads (one by default) once a scrape holds
+     * {@code parallelThreshold} data points ({@value #DEFAULT_PARALLEL_THRESHOLD} by default). Every encoder
+     * caches the label blocks of up to {@code labelCacheMaxEntries} series
+     * ({@value SeriesLabelCache#DEFAULT_MAX_ENTRIES} by default), see {@link SeriesLabelCache} for sizing.
+     * Snapshots pass the {@code relabeler}, if given, and are then aggregated by the first matching of the
+     * {@code aggregationRules} before they are encoded. Data point labels named like a label added by the
+     * exporter are resolved by the {@code labelConflictPolicy} ({@link LabelConflictPolicy#RENAME} by default).
+     */
+    @Builder
+    public MetricExporter(SystemInfo systemInfo, Integer sendIntervalSeconds,
+                          PrometheusMeterRegistry meterRegistry, RemoteWriteSink remoteWriteSink,
+                          Duration deltaHeartbeat, Integer parallelism, Integer parallelThreshold,
+                          Integer labelCacheMaxEntries, Relabeler relabeler,
+                          List<AggregationRule> aggregationRules, LabelConflictPolicy labelConflictPolicy) {
+        if (sendIntervalSeconds == null) {
+            sendIntervalSeconds = DEFAULT_SEND_INTERVAL_SECONDS;
+        }
         if (sendIntervalSeconds <= 0) {
             throw new IllegalArgumentException("SendInterval must be greater than 0");
         }
+        if (parallelism == null) {
+            parallelism = 1;
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be greater than 0");
+        }
+        if (labelCacheMaxEntries == null) {
+            labelCacheMaxEntries = SeriesLabelCache.DEFAULT_MAX_ENTRIES;
+        }
+        if (labelCacheMaxEntries <= 0) {
+            throw new IllegalArgumentException("LabelCacheMaxEntries must be greater than 0");
+        }
         this.systemInfo = systemInfo;
         this.meterRegistry = meterRegistry;
-        this.remoteWriteClient = remoteWriteClient;
+        this.remoteWriteSink = remoteWriteSink;
+        this.relabeler = relabeler;
         this.sendIntervalSeconds = sendIntervalSeconds;
-        this.executorService = Executors.newSingleThreadScheduledExecutor();
+        this.parallelThreshold = parallelThreshold != null ? parallelThreshold : DEFAULT_PARALLEL_THRESHOLD;
+        this.executorService = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "metric-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executorService.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        this.cycleSettings = parallelism > 1 ? new CycleSettingsSink(remoteWriteSink) : null;
+        this.workerPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.encoders = new RemoteWriteEncoder[parallelism];
+        this.aggregators = aggregationRules != null && !aggregationRules.isEmpty()
+                ? new Aggregator[parallelism]
+                : null;
+        List<SeriesLabelCache> labelCaches = new ArrayList<>();
+        List<ChangedSampleFilter> sampleFilters = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            SeriesLabelCache labelCache = new SeriesLabelCache(systemInfo, labelCacheMaxEntries,
+                    labelConflictPolicy);
+            labelCaches.add(labelCache);
+            ChangedSampleFilter sampleFilter = null;
+            if (deltaHeartbeat != null) {
+                sampleFilter = new ChangedSampleFilter(deltaHeartbeat);
+                sampleFilters.add(sampleFilter);
+            }
+            encoders[i] = new RemoteWriteEncoder(labelCache,
+                    cycleSettings != null ? cycleSettings : remoteWriteSink, sampleFilter);
+            if (aggregators != null) {
+                aggregators[i] = new Aggregator(aggregationRules);
+            }
+        }
+        SeriesLabelCache.bindTo(meterRegistry, labelCaches);
+        if (!sampleFilters.isEmpty()) {
+            ChangedSampleFilter.bindTo(meterRegistry, sampleFilters);
+        }
+        if (aggregators != null) {
+            Aggregator.bindTo(meterRegistry, List.of(aggregators));
+        }
+        if (remoteWriteSink instanceof MeterBinder binder) {
+            binder.bindTo(meterRegistry);
+        }
+        if (relabeler != null) {
+            relabeler.bindTo(meterRegistry);
+        }
+        this.scrapeTimer = Timer.builder("exporter.scrape")
+                .description("Time spent taking registry snapshots")
+                .register(meterRegistry);
+        this.encodeTimer = Timer.builder("exporter.encode")
+                .description("Time spent encoding snapshots and handing requests to the sink")
+                .register(meterRegistry);
+        this.cycleOverruns = Counter.builder("exporter.cycle.overruns")
+                .description("Export cycles that took longer than the send interval")
+                .register(meterRegistry);
+        this.skippedTicks = Counter.builder("exporter.cycle.skipped.ticks")
+                .description("Scheduled export ticks skipped because the previous cycle was still running")
+                .register(meterRegistry);
+        TimeGauge.builder("exporter.cycle.lag", this, TimeUnit.MILLISECONDS, exporter -> exporter.lagMillis)
+                .description("Delay between the scheduled tick and the start of the last export cycle")
+                .register(meterRegistry);
         this.processors = new HashMap<>();
         initializeProcessors();
     }
@@ -66,197 +210,374 @@ public class MetricExporter implements AutoCloseable {
     }
 
     public void startSendingMetrics() {
-        executorService.scheduleAtFixedRate(() ->
-                CompletableFuture.runAsync(this::sendMetrics)
-                        .exceptionally(e -> {
-                            log.error("Send Metrics Job: an exception occurred trying to send metrics", e);
-                            return null;
-                        }),
-                0, sendIntervalSeconds, TimeUnit.SECONDS);
+        scheduleNextCycle();
     }
 
-    private void sendMetrics() {
-//        Runtime runtime = Runtime.getRuntime();
-//        runtime.gc();
-//        long usedMemoryBefore = runtime.totalMemory() - runtime.freeMemory();
-//
-//        long startTime = System.nanoTime();
-        List<TimeSeries> metrics = collectMetrics();
-//        long durationNs = System.nanoTime() - startTime;
-//
-//        long usedMemoryAfter = runtime.totalMemory() - runtime.freeMemory();
-//        long memoryUsed = usedMemoryAfter - usedMemoryBefore;
-//        log.info("Время выполнения: {} мс", durationNs / 1_000_000.0);
-//        log.info("Потребляемая память: {} байт", memoryUsed);
-
-        WriteRequest.Builder writeRequest = WriteRequest.newBuilder();
-
-        for (TimeSeries timeSeries : metrics) {
-            writeRequest.addTimeseries(timeSeries);
-            if (writeRequest.getTimeseriesCount() == MAX_SAMPLES_PER_SEND) {
-                remoteWriteClient.write(writeRequest.build());
-                writeRequest.clear();
-            }
+    private void scheduleNextCycle() {
+        long intervalMillis = TimeUnit.SECONDS.toMillis(sendIntervalSeconds);
+        long now = System.currentTimeMillis();
+        long tick = (now / intervalMillis + 1) * intervalMillis;
+        try {
+            executorService.schedule(() -> runCycle(tick), tick - now, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Metric exporter is closed, not scheduling further cycles");
         }
+    }
 
-        if (writeRequest.getTimeseriesCount() > 0) {
-            remoteWriteClient.write(writeRequest.build());
+    private void runCycle(long tick) {
+        lagMillis = Math.max(0, System.currentTimeMillis() - tick);
+        try {
+            sendMetrics(tick);
+        } catch (Exception e) {
+            log.error("Send Metrics Job: an exception occurred trying to send metrics", e);
+        } finally {
+            long missed = (System.currentTimeMillis() - tick) / TimeUnit.SECONDS.toMillis(sendIntervalSeconds);
+            if (missed > 0) {
+                skippedTicks.increment(missed);
+                log.warn("Export cycle of tick {} finished late, skipping {} tick(s)", tick, missed);
+            }
+            if (!executorService.isShutdown()) {
+                scheduleNextCycle();
+            }
         }
     }
 
-    private List<TimeSeries> collectMetrics() {
+    private synchronized void sendMetrics(long timestamp) {
+        long start = System.nanoTime();
         MetricSnapshots snapshots = meterRegistry
                 .getPrometheusRegistry()
                 .scrape((PrometheusScrapeRequest) null);
+        long scraped = System.nanoTime();
+        scrapeTimer.record(scraped - start, TimeUnit.NANOSECONDS);
 
-        long timestamp = OffsetDateTime.now().toInstant().toEpochMilli();
+        export(snapshots, timestamp);
+        long finished = System.nanoTime();
+        encodeTimer.record(finished - scraped, TimeUnit.NANOSECONDS);
+
+        if (finished - start > TimeUnit.SECONDS.toNanos(sendIntervalSeconds)) {
+            cycleOverruns.increment();
+            log.warn("Export cycle took {} ms, longer than the send interval of {} s",
+                    TimeUnit.NANOSECONDS.toMillis(finished - start), sendIntervalSeconds);
+        }
+    }
 
-        List<TimeSeries> metrics = new ArrayList<>();
+    /**
+     * Encodes the snapshots and finishes the cycle of every encoder.
+     */
+    void export(MetricSnapshots snapshots, long timestamp) {
+        if (workerPool == null || dataPoints(snapshots) < parallelThreshold) {
+            for (MetricSnapshot snapshot : snapshots) {
+                process(snapshot, timestamp, encoders[0], aggregator(0));
+            }
+        } else {
+            exportInParallel(snapshots, timestamp);
+        }
+        if (cycleSettings != null) {
+            cycleSettings.refresh();
+        }
+        for (RemoteWriteEncoder encoder : encoders) {
+            encoder.finishCycle();
+        }
+        if (relabeler != null) {
+            relabeler.sweep();
+        }
+    }
+
+    private void exportInParallel(MetricSnapshots snapshots, long timestamp) {
+        List<List<MetricSnapshot>> partitions = new ArrayList<>(encoders.length);
+        for (int i = 0; i < encoders.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
         for (MetricSnapshot snapshot : snapshots) {
-            String meterName = snapshot.getMetadata().getPrometheusName();
-            TriFunction<MetricSnapshot, String, Long, List<TimeSeries>> processor = processors.get(snapshot.getClass());
-            if (processor != null) {
-                metrics.addAll(processor.apply(snapshot, meterName, timestamp));
+            int worker = Math.floorMod(snapshot.getMetadata().getPrometheusName().hashCode(), encoders.length);
+            partitions.get(worker).add(snapshot);
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(encoders.length);
+        for (int i = 0; i < encoders.length; i++) {
+            RemoteWriteEncoder encoder = encoders[i];
+            Aggregator aggregator = aggregator(i);
+            List<MetricSnapshot> partition = partitions.get(i);
+            tasks.add(() -> {
+                for (MetricSnapshot snapshot : partition) {
+                    process(snapshot, timestamp, encoder, aggregator);
+                }
+                encoder.flush();
+                return null;
+            });
+        }
+        for (Future<Void> result : workerPool.invokeAll(tasks)) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                log.error("Send Metrics Job: a worker failed to encode its snapshots", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
-        return metrics;
     }
 
-    private List<TimeSeries> processCounterSnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private static int dataPoints(MetricSnapshots snapshots) {
+        int dataPoints = 0;
+        for (MetricSnapshot snapshot : snapshots) {
+            dataPoints += snapshot.getDataPoints().size();
+        }
+        return dataPoints;
+    }
+
+    private Aggregator aggregator(int worker) {
+        return aggregators != null ? aggregators[worker] : null;
+    }
+
+    void process(MetricSnapshot snapshot, long timestamp, RemoteWriteEncoder encoder) {
+        process(snapshot, timestamp, encoder, null);
+    }
+
+    private void process(MetricSnapshot snapshot, long timestamp, RemoteWriteEncoder encoder,
+                         Aggregator aggregator) {
+        String meterName = snapshot.getMetadata().getPrometheusName();
+        SnapshotProcessor processor = processors.get(snapshot.getClass());
+        if (processor == null) {
+            return;
+        }
+        MetricRules rules = relabeler != null
+                ? relabeler.rules(meterName, snapshot.getDataPoints().size())
+                : Relabeler.KEEP_ALL;
+        if (rules == null) {
+            return;
+        }
+        MetricGroups groups = aggregator != null ? aggregator.groups(meterName) : null;
+        if (groups == null || !processAggregated(snapshot, meterName, rules, groups, timestamp, encoder)) {
+            processor.process(snapshot, meterName, rules, timestamp, encoder);
+        }
+    }
+
+    /**
+     * Sends counters, gauges and classic histograms as one series per group, returning {@code false} for
+     * other snapshot types. Histogram data points without classic buckets, or with buckets other than those
+     * of the groups, are sent as they are.
+     */
+    private boolean processAggregated(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                      MetricGroups groups, long timestamp, RemoteWriteEncoder encoder) {
+        if (snapshot instanceof CounterSnapshot counterSnapshot) {
+            encoder.beginMetric(snapshot.getMetadata(), MetricType.COUNTER);
+            groups.begin();
+            for (CounterSnapshot.CounterDataPointSnapshot snap : counterSnapshot.getDataPoints()) {
+                Labels labels = rules.apply(snap.getLabels(), timestamp);
+                if (labels != null) {
+                    groups.addCounter(groups.group(labels), snap.getValue());
+                }
+            }
+            sendGroupValues(meterName, groups, timestamp, encoder);
+        } else if (snapshot instanceof GaugeSnapshot gaugeSnapshot) {
+            encoder.beginMetric(snapshot.getMetadata(), MetricType.GAUGE);
+            groups.begin();
+            for (GaugeSnapshot.GaugeDataPointSnapshot snap : gaugeSnapshot.getDataPoints()) {
+                Labels labels = rules.apply(snap.getLabels(), timestamp);
+                if (labels != null) {
+                    groups.addGauge(groups.group(labels), snap.getValue());
+                }
+            }
+            sendGroupValues(meterName, groups, timestamp, encoder);
+        } else if (snapshot instanceof HistogramSnapshot histogramSnapshot) {
+            encoder.beginMetric(snapshot.getMetadata(),
+                    histogramSnapshot.isGaugeHistogram() ? MetricType.GAUGE_HISTOGRAM : MetricType.HISTOGRAM);
+            String sumName = meterName + "_sum";
+            String countName = meterName + "_count";
+            String bucketName = meterName + "_bucket";
+            groups.begin();
+            for (HistogramSnapshot.HistogramDataPointSnapshot snap : histogramSnapshot.getDataPoints()) {
+                Labels labels = rules.apply(snap.getLabels(), timestamp);
+                if (labels == null) {
+                    continue;
+                }
+                if (snap.hasClassicHistogramData() && groups.acceptsBuckets(snap.getClassicBuckets())) {
+                    groups.addHistogram(groups.group(labels), snap);
+                } else {
+                    processHistogramDataPoint(snap, labels, meterName, sumName, countName, bucketName,
+                            timestamp, encoder);
+                }
+            }
+            for (int i = 0; i < groups.touchedCount(); i++) {
+                int group = groups.touchedGroup(i);
+                Labels labels = groups.labels(group);
+                encoder.series(sumName, labels, groups.value(group), timestamp);
+                encoder.series(countName, labels, groups.count(group), timestamp);
+                long cumulativeCount = 0;
+                for (int bucket = 0; bucket < groups.buckets(); bucket++) {
+                    cumulativeCount += groups.bucketCount(group, bucket);
+                    encoder.series(bucketName, labels, "le", groups.upperBound(bucket), cumulativeCount,
+                            timestamp);
+                }
+            }
+            groups.finish();
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void sendGroupValues(String meterName, MetricGroups groups, long timestamp, RemoteWriteEncoder encoder) {
+        for (int i = 0; i < groups.touchedCount(); i++) {
+            int group = groups.touchedGroup(i);
+            encoder.series(meterName, groups.labels(group), groups.value(group), timestamp);
+        }
+        groups.finish();
+    }
+
+    private void processCounterSnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                        long timestamp, RemoteWriteEncoder encoder) {
         CounterSnapshot counterSnapshot = (CounterSnapshot) snapshot;
-        return counterSnapshot.getDataPoints().stream()
-                .map(snap -> buildTimeSeries(meterName, snap.getLabels(), snap.getValue(), timestamp))
-                .toList();
+        encoder.beginMetric(snapshot.getMetadata(), MetricType.COUNTER);
+        for (CounterSnapshot.CounterDataPointSnapshot snap : counterSnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels == null) {
+                continue;
+            }
+            encoder.series(meterName, labels, snap.getValue(), timestamp);
+        }
     }
 
-    private List<TimeSeries> processGaugeSnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private void processGaugeSnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                      long timestamp, RemoteWriteEncoder encoder) {
         GaugeSnapshot gaugeSnapshot = (GaugeSnapshot) snapshot;
-        return gaugeSnapshot.getDataPoints().stream()
-                .map(snap -> buildTimeSeries(meterName, snap.getLabels(), snap.getValue(), timestamp))
-                .toList();
+        encoder.beginMetric(snapshot.getMetadata(), MetricType.GAUGE);
+        for (GaugeSnapshot.GaugeDataPointSnapshot snap : gaugeSnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels == null) {
+                continue;
+            }
+            encoder.series(meterName, labels, snap.getValue(), timestamp);
+        }
     }
 
-    private List<TimeSeries> processSummarySnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private void processSummarySnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                        long timestamp, RemoteWriteEncoder encoder) {
         SummarySnapshot summarySnapshot = (SummarySnapshot) snapshot;
-        List<TimeSeries> metrics = new ArrayList<>();
-        summarySnapshot.getDataPoints().forEach(snap -> {
+        encoder.beginMetric(snapshot.getMetadata(), MetricType.SUMMARY);
+        String sumName = meterName + "_sum";
+        String countName = meterName + "_count";
+        for (SummarySnapshot.SummaryDataPointSnapshot snap : summarySnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels == null) {
+                continue;
+            }
             if (snap.hasSum()) {
-                metrics.add(buildTimeSeries(meterName + "_sum", snap.getLabels(), snap.getSum(), timestamp));
+                encoder.series(sumName, labels, snap.getSum(), timestamp);
             }
             if (snap.hasCount()) {
-                metrics.add(buildTimeSeries(meterName + "_count", snap.getLabels(), snap.getCount(), timestamp));
+                encoder.series(countName, labels, snap.getCount(), timestamp);
             }
-            snap.getQuantiles().forEach(snapQuantile -> {
-                Labels labels = snap.getLabels().add("quantile", String.valueOf(snapQuantile.getQuantile()));
-                metrics.add(buildTimeSeries(meterName, labels, snapQuantile.getQuantile(), timestamp));
-            });
-        });
-        return metrics;
+            Quantiles quantiles = snap.getQuantiles();
+            for (int i = 0; i < quantiles.size(); i++) {
+                Quantile quantile = quantiles.get(i);
+                encoder.series(meterName, labels, "quantile", quantile.getQuantile(),
+                        quantile.getValue(), timestamp);
+            }
+        }
     }
 
-    private List<TimeSeries> processHistogramSnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private void processHistogramSnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                          long timestamp, RemoteWriteEncoder encoder) {
         HistogramSnapshot histogramSnapshot = (HistogramSnapshot) snapshot;
-        List<TimeSeries> metrics = new ArrayList<>();
-        histogramSnapshot.getDataPoints().forEach(snap -> {
-            if (snap.hasSum()) {
-                metrics.add(buildTimeSeries(meterName + "_sum", snap.getLabels(), snap.getSum(), timestamp));
-            }
-            if (snap.hasCount()) {
-                metrics.add(buildTimeSeries(meterName + "_count", snap.getLabels(), snap.getCount(), timestamp));
+        encoder.beginMetric(snapshot.getMetadata(),
+                histogramSnapshot.isGaugeHistogram() ? MetricType.GAUGE_HISTOGRAM : MetricType.HISTOGRAM);
+        String sumName = meterName + "_sum";
+        String countName = meterName + "_count";
+        String bucketName = meterName + "_bucket";
+        for (HistogramSnapshot.HistogramDataPointSnapshot snap : histogramSnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels != null) {
+                processHistogramDataPoint(snap, labels, meterName, sumName, countName, bucketName,
+                        timestamp, encoder);
             }
-            if (snap.hasClassicHistogramData()) {
-                metrics.addAll(processClassicHistogramData(snap, meterName, timestamp));
+        }
+    }
+
+    private void processHistogramDataPoint(HistogramSnapshot.HistogramDataPointSnapshot snap, Labels labels,
+                                           String meterName, String sumName, String countName,
+                                           String bucketName, long timestamp, RemoteWriteEncoder encoder) {
+        if (snap.hasNativeHistogramData() && encoder.supportsNativeHistograms()) {
+            encoder.nativeHistogram(meterName, labels, snap, timestamp);
+            if (!snap.hasClassicHistogramData()) {
+                return;
             }
-        });
-        return metrics;
+        } else if (snap.hasClassicHistogramData() && encoder.supportsCustomBucketHistograms()) {
+            encoder.customBucketHistogram(meterName, labels, snap, timestamp);
+            return;
+        }
+        if (snap.hasSum()) {
+            encoder.series(sumName, labels, snap.getSum(), timestamp);
+        }
+        if (snap.hasCount()) {
+            encoder.series(countName, labels, snap.getCount(), timestamp);
+        }
+        if (snap.hasClassicHistogramData()) {
+            processClassicHistogramData(snap, labels, bucketName, timestamp, encoder);
+        }
     }
 
-    private List<TimeSeries> processClassicHistogramData(HistogramSnapshot.HistogramDataPointSnapshot snap,
-                                                         String meterName, long timestamp) {
-        List<TimeSeries> metrics = new ArrayList<>();
+    private void processClassicHistogramData(HistogramSnapshot.HistogramDataPointSnapshot snap, Labels labels,
+                                             String bucketName, long timestamp, RemoteWriteEncoder encoder) {
         long cumulativeCount = 0;
         ClassicHistogramBuckets buckets = snap.getClassicBuckets();
         for (int i = 0; i < buckets.size(); i++) {
             cumulativeCount += buckets.getCount(i);
-            double upperBound = buckets.getUpperBound(i);
-            Labels labels = snap.getLabels().add("le", String.valueOf(upperBound));
-            metrics.add(buildTimeSeries(meterName + "_bucket", labels, cumulativeCount, timestamp));
+            encoder.series(bucketName, labels, "le", buckets.getUpperBound(i), cumulativeCount, timestamp);
         }
-        return metrics;
     }
 
-    private List<TimeSeries> processInfoSnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private void processInfoSnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                     long timestamp, RemoteWriteEncoder encoder) {
         InfoSnapshot infoSnapshot = (InfoSnapshot) snapshot;
-        return infoSnapshot.getDataPoints().stream()
-                .map(snap -> buildTimeSeries(meterName + "_info", snap.getLabels(), 1, timestamp))
-                .toList();
+        encoder.beginMetric(snapshot.getMetadata(), MetricType.INFO);
+        String infoName = meterName + "_info";
+        for (InfoSnapshot.InfoDataPointSnapshot snap : infoSnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels == null) {
+                continue;
+            }
+            encoder.series(infoName, labels, 1, timestamp);
+        }
     }
 
-    private List<TimeSeries> processStateSetSnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private void processStateSetSnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                         long timestamp, RemoteWriteEncoder encoder) {
         StateSetSnapshot stateSetSnapshot = (StateSetSnapshot) snapshot;
-        List<TimeSeries> metrics = new ArrayList<>();
-        stateSetSnapshot.getDataPoints().forEach(snap -> {
+        encoder.beginMetric(snapshot.getMetadata(), MetricType.STATESET);
+        String stateName = meterName + "_state";
+        for (StateSetSnapshot.StateSetDataPointSnapshot snap : stateSetSnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels == null) {
+                continue;
+            }
             for (int i = 0; i < snap.size(); i++) {
-                Labels labels = snap.getLabels().add("state", snap.getName(i));
                 double value = snap.isTrue(i) ? 1 : 0;
-                metrics.add(buildTimeSeries(meterName + "_state", labels, value, timestamp));
+                encoder.series(stateName, labels, "state", snap.getName(i), value, timestamp);
             }
-        });
-        return metrics;
+        }
     }
 
-
-    private List<TimeSeries> processUnknownSnapshot(MetricSnapshot snapshot, String meterName, long timestamp) {
+    private void processUnknownSnapshot(MetricSnapshot snapshot, String meterName, MetricRules rules,
+                                        long timestamp, RemoteWriteEncoder encoder) {
         UnknownSnapshot unknownSnapshot = (UnknownSnapshot) snapshot;
-        return unknownSnapshot.getDataPoints().stream()
-                .map(snap -> buildTimeSeries(meterName + "_untyped", snap.getLabels(), snap.getValue(), timestamp))
-                .toList();
-    }
-
-    private TimeSeries buildTimeSeries(String name, Labels labels, double value, long timestamp) {
-        TimeSeries.Builder builder = TimeSeries.newBuilder();
-        if (labels != null) {
-            labels.forEach(label -> builder.addLabels(
-                    Label.newBuilder()
-                            .setName(label.getName())
-                            .setValue(label.getValue())
-                            .build()
-            ));
-        }
-
-        if (systemInfo.getInstance() != null) {
-            builder.addLabels(Label.newBuilder()
-                    .setName("instance")
-                    .setValue(systemInfo.getInstance())
-                    .build()
-            );
-        }
-        return builder
-                .addLabels(Label.newBuilder()
-                        .setName("group")
-                        .setValue(systemInfo.getGroup())
-                        .build())
-                .addLabels(Label.newBuilder()
-                        .setName("system")
-                        .setValue(systemInfo.getSystem())
-                        .build())
-                .addLabels(Label.newBuilder()
-                        .setName("env")
-                        .setValue(systemInfo.getEnv())
-                        .build())
-                .addLabels(Label.newBuilder()
-                        .setName("__name__")
-                        .setValue(name)
-                        .build())
-                .addSamples(Sample.newBuilder()
-                        .setValue(value)
-                        .setTimestamp(timestamp)
-                        .build())
-                .build();
+        encoder.beginMetric(snapshot.getMetadata(), MetricType.UNSPECIFIED);
+        String untypedName = meterName + "_untyped";
+        for (UnknownSnapshot.UnknownDataPointSnapshot snap : unknownSnapshot.getDataPoints()) {
+            Labels labels = rules.apply(snap.getLabels(), timestamp);
+            if (labels == null) {
+                continue;
+            }
+            encoder.series(untypedName, labels, snap.getValue(), timestamp);
+        }
     }
 
     @Override
     public void close() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
         try {
             executorService.shutdown();
             if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -266,4 +587,61 @@ public class MetricExporter implements AutoCloseable {
             executorService.shutdownNow();
         }
     }
+
+    /**
+     * Passes requests of parallel encoders through to the sink while answering the per-cycle settings from a
+     * copy taken once per cycle, so that the sink sees one {@link RemoteWriteSink#shards()} call per cycle
+     * instead of one per encoder.
+     */
+    private static final class CycleSettingsSink implements RemoteWriteSink {
+        private final RemoteWriteSink sink;
+        private volatile int shards;
+        private volatile RemoteWriteProtocol protocol;
+        private volatile HistogramFormat histogramFormat;
+        private volatile int maxRequestBytes;
+        private volatile int maxSeriesPerRequest;
+
+        private CycleSettingsSink(RemoteWriteSink sink) {
+            this.sink = sink;
+            refresh();
+        }
+
+        private void refresh() {
+            shards = sink.shards();
+            protocol = sink.protocol();
+            histogramFormat = sink.histogramFormat();
+            maxRequestBytes = sink.maxRequestBytes();
+            maxSeriesPerRequest = sink.maxSeriesPerRequest();
+        }
+
+        @Override
+        public void write(int shard, WriteRequestBuffer writeRequest) {
+            sink.write(shard, writeRequest);
+        }
+
+        @Override
+        public int shards() {
+            return shards;
+        }
+
+        @Override
+        public RemoteWriteProtocol protocol() {
+            return protocol;
+        }
+
+        @Override
+        public HistogramFormat histogramFormat() {
+            return histogramFormat;
+        }
+
+        @Override
+        public int maxRequestBytes() {
+            return maxRequestBytes;
+        }
+
+        @Override
+        public int maxSeriesPerRequest() {
+            return maxSeriesPerRequest;
+        }
+    }
 }
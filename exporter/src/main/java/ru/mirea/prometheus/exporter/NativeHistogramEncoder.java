@@ -0,0 +1,238 @@
+package ru.mirea.prometheus.exporter;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes the {@code Histogram} message shared by both remote-write protocol versions from the native
+ * (exponential) data of a histogram data point, converting sparse bucket indexes into spans and deltas.
+ * Classic buckets can be written as a native histogram with custom bucket bounds (schema -53), which keeps
+ * them exact while sending one series instead of one per bucket.
+ * Scratch arrays are reused, so an instance must not be shared between threads.
+ */
+final class NativeHistogramEncoder {
+
+    private static final int COUNT_INT = 1;
+    private static final int SUM = 3;
+    private static final int SCHEMA = 4;
+    private static final int ZERO_THRESHOLD = 5;
+    private static final int ZERO_COUNT_INT = 6;
+    private static final int NEGATIVE_SPANS = 8;
+    private static final int NEGATIVE_DELTAS = 9;
+    private static final int POSITIVE_SPANS = 11;
+    private static final int POSITIVE_DELTAS = 12;
+    private static final int RESET_HINT = 14;
+    private static final int TIMESTAMP = 15;
+    private static final int CUSTOM_VALUES = 16;
+    private static final int SPAN_OFFSET = 1;
+    private static final int SPAN_LENGTH = 2;
+    private static final int RESET_HINT_GAUGE = 3;
+    private static final int CUSTOM_BUCKETS_SCHEMA = -53;
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+
+    private long count;
+    private double sum;
+    private int schema;
+    private double zeroThreshold;
+    private long zeroCount;
+    private boolean gauge;
+    private long timestamp;
+    private double[] customValues = new double[32];
+    private int customValuesCount;
+
+    /**
+     * Prepares the native data of the data point for encoding and returns the size of the {@code Histogram}
+     * message.
+     */
+    int prepare(HistogramSnapshot.HistogramDataPointSnapshot snap, boolean gauge, long timestamp) {
+        this.count = snap.hasCount() ? snap.getCount() : 0;
+        this.sum = snap.hasSum() ? snap.getSum() : 0;
+        this.schema = snap.getNativeSchema();
+        this.zeroThreshold = snap.getNativeZeroThreshold();
+        this.zeroCount = snap.getNativeZeroCount();
+        this.gauge = gauge;
+        this.timestamp = timestamp;
+        this.customValuesCount = 0;
+        positive.prepare(snap.getNativeBucketsForPositiveValues());
+        negative.prepare(snap.getNativeBucketsForNegativeValues());
+        return size();
+    }
+
+    /**
+     * Prepares the classic buckets of the data point for encoding as a custom buckets histogram and returns
+     * the size of the {@code Histogram} message.
+     */
+    int prepareCustomBuckets(HistogramSnapshot.HistogramDataPointSnapshot snap, boolean gauge, long timestamp) {
+        ClassicHistogramBuckets buckets = snap.getClassicBuckets();
+        this.sum = snap.hasSum() ? snap.getSum() : 0;
+        this.schema = CUSTOM_BUCKETS_SCHEMA;
+        this.zeroThreshold = 0;
+        this.zeroCount = 0;
+        this.gauge = gauge;
+        this.timestamp = timestamp;
+        this.customValuesCount = 0;
+        if (customValues.length < buckets.size()) {
+            customValues = Arrays.copyOf(customValues, Math.max(buckets.size(), customValues.length << 1));
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            double upperBound = buckets.getUpperBound(i);
+            if (upperBound != Double.POSITIVE_INFINITY) {
+                customValues[customValuesCount++] = upperBound;
+            }
+        }
+        this.count = positive.prepare(buckets);
+        negative.clear();
+        return size();
+    }
+
+    private int size() {
+        int customValuesSize = customValuesCount * Double.BYTES;
+        return CodedOutputStream.computeUInt64Size(COUNT_INT, count)
+                + CodedOutputStream.computeDoubleSize(SUM, sum)
+                + CodedOutputStream.computeSInt32Size(SCHEMA, schema)
+                + CodedOutputStream.computeDoubleSize(ZERO_THRESHOLD, zeroThreshold)
+                + CodedOutputStream.computeUInt64Size(ZERO_COUNT_INT, zeroCount)
+                + negative.size(NEGATIVE_SPANS, NEGATIVE_DELTAS)
+                + positive.size(POSITIVE_SPANS, POSITIVE_DELTAS)
+                + (gauge ? CodedOutputStream.computeEnumSize(RESET_HINT, RESET_HINT_GAUGE) : 0)
+                + CodedOutputStream.computeInt64Size(TIMESTAMP, timestamp)
+                + (customValuesCount == 0 ? 0 : CodedOutputStream.computeTagSize(CUSTOM_VALUES)
+                + CodedOutputStream.computeUInt32SizeNoTag(customValuesSize) + customValuesSize);
+    }
+
+    /**
+     * Writes the message body prepared by the last {@link #prepare} call, without tag and length.
+     */
+    void write(CodedOutputStream output) throws IOException {
+        output.writeUInt64(COUNT_INT, count);
+        output.writeDouble(SUM, sum);
+        output.writeSInt32(SCHEMA, schema);
+        output.writeDouble(ZERO_THRESHOLD, zeroThreshold);
+        output.writeUInt64(ZERO_COUNT_INT, zeroCount);
+        negative.write(output, NEGATIVE_SPANS, NEGATIVE_DELTAS);
+        positive.write(output, POSITIVE_SPANS, POSITIVE_DELTAS);
+        if (gauge) {
+            output.writeEnum(RESET_HINT, RESET_HINT_GAUGE);
+        }
+        output.writeInt64(TIMESTAMP, timestamp);
+        if (customValuesCount > 0) {
+            output.writeTag(CUSTOM_VALUES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(customValuesCount * Double.BYTES);
+            for (int i = 0; i < customValuesCount; i++) {
+                output.writeDoubleNoTag(customValues[i]);
+            }
+        }
+    }
+
+    private static final class Buckets {
+        private int[] spanOffsets = new int[16];
+        private int[] spanLengths = new int[16];
+        private long[] deltas = new long[64];
+        private int spans;
+        private int buckets;
+        private int deltasSize;
+
+        private void clear() {
+            spans = 0;
+            buckets = 0;
+            deltasSize = 0;
+        }
+
+        /**
+         * Prepares classic buckets as one span starting at index 0 and returns their total count.
+         */
+        private long prepare(ClassicHistogramBuckets classicBuckets) {
+            buckets = classicBuckets.size();
+            if (deltas.length < buckets) {
+                deltas = Arrays.copyOf(deltas, Math.max(buckets, deltas.length << 1));
+            }
+            spans = buckets == 0 ? 0 : 1;
+            spanOffsets[0] = 0;
+            spanLengths[0] = buckets;
+            long previousCount = 0;
+            long total = 0;
+            deltasSize = 0;
+            for (int i = 0; i < buckets; i++) {
+                long bucketCount = classicBuckets.getCount(i);
+                deltas[i] = bucketCount - previousCount;
+                deltasSize += CodedOutputStream.computeSInt64SizeNoTag(deltas[i]);
+                previousCount = bucketCount;
+                total += bucketCount;
+            }
+            return total;
+        }
+
+        private void prepare(NativeHistogramBuckets nativeBuckets) {
+            spans = 0;
+            buckets = nativeBuckets.size();
+            if (deltas.length < buckets) {
+                deltas = Arrays.copyOf(deltas, Math.max(buckets, deltas.length << 1));
+            }
+            long previousCount = 0;
+            int previousIndex = 0;
+            deltasSize = 0;
+            for (int i = 0; i < buckets; i++) {
+                int index = nativeBuckets.getBucketIndex(i);
+                if (i > 0 && index == previousIndex + 1) {
+                    spanLengths[spans - 1]++;
+                } else {
+                    if (spans == spanOffsets.length) {
+                        spanOffsets = Arrays.copyOf(spanOffsets, spans << 1);
+                        spanLengths = Arrays.copyOf(spanLengths, spans << 1);
+                    }
+                    spanOffsets[spans] = i == 0 ? index : index - previousIndex - 1;
+                    spanLengths[spans] = 1;
+                    spans++;
+                }
+                long bucketCount = nativeBuckets.getCount(i);
+                deltas[i] = bucketCount - previousCount;
+                deltasSize += CodedOutputStream.computeSInt64SizeNoTag(deltas[i]);
+                previousCount = bucketCount;
+                previousIndex = index;
+            }
+        }
+
+        private int size(int spansField, int deltasField) {
+            if (buckets == 0) {
+                return 0;
+            }
+            int size = 0;
+            for (int i = 0; i < spans; i++) {
+                size += CodedOutputStream.computeTagSize(spansField)
+                        + CodedOutputStream.computeUInt32SizeNoTag(spanSize(i)) + spanSize(i);
+            }
+            return size + CodedOutputStream.computeTagSize(deltasField)
+                    + CodedOutputStream.computeUInt32SizeNoTag(deltasSize) + deltasSize;
+        }
+
+        private void write(CodedOutputStream output, int spansField, int deltasField) throws IOException {
+            if (buckets == 0) {
+                return;
+            }
+            for (int i = 0; i < spans; i++) {
+                output.writeTag(spansField, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(spanSize(i));
+                output.writeSInt32(SPAN_OFFSET, spanOffsets[i]);
+                output.writeUInt32(SPAN_LENGTH, spanLengths[i]);
+            }
+            output.writeTag(deltasField, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(deltasSize);
+            for (int i = 0; i < buckets; i++) {
+                output.writeSInt64NoTag(deltas[i]);
+            }
+        }
+
+        private int spanSize(int span) {
+            return CodedOutputStream.computeSInt32Size(SPAN_OFFSET, spanOffsets[span])
+                    + CodedOutputStream.computeUInt32Size(SPAN_LENGTH, spanLengths[span]);
+        }
+    }
+}
@@ -1,55 +1,499 @@
 package ru.mirea.prometheus.exporter;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
-import org.xerial.snappy.Snappy;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
-public class PrometheusRemoteWriteClient {
+public class PrometheusRemoteWriteClient implements RemoteWriteSink, MeterBinder, AutoCloseable {
+
+    private static final long WAL_POLL_TIMEOUT_MILLIS = 1000;
+    private static final Duration MIN_REQUEST_TIMEOUT = Duration.ofSeconds(1);
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx", "error"};
+    private static final int STATUS_CLASS_ERROR = STATUS_CLASSES.length - 1;
+    private static final Duration[] REQUEST_LATENCY_BUCKETS = {
+            Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50),
+            Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1),
+            Duration.ofMillis(2500), Duration.ofSeconds(5), Duration.ofSeconds(10)
+    };
 
     private final String apiUrl;
+    private final URI uri;
     private final String userAgent;
     private final String authorization;
     private final HttpClient httpClient;
+    private final CompressionCodec codec;
+    private final HistogramFormat histogramFormat;
+    private final int maxRequestBytes;
+    private final int maxSeriesPerRequest;
+    private final RetryPolicy retryPolicy;
+    private final DirectBufferPool bufferPool = new DirectBufferPool();
+    private final WriteAheadLog writeAheadLog;
+    private final Thread walSender;
+
+    private final LongAdder sentSamples = new LongAdder();
+    private final LongAdder droppedSamples = new LongAdder();
+    private final LongAdder retriedSamples = new LongAdder();
+    private volatile Timer[] requestTimers;
+    private volatile DistributionSummary uncompressedBytes;
+    private volatile DistributionSummary compressedBytes;
+    private volatile DistributionSummary requestSeries;
+
+    private volatile RemoteWriteProtocol protocol;
+    private volatile boolean running = true;
 
     public PrometheusRemoteWriteClient(String apiUrl, String userAgent, String authorization) {
+        this(apiUrl, userAgent, authorization, null, null, null, null, null, null, null);
+    }
+
+    public PrometheusRemoteWriteClient(String apiUrl, String userAgent, String authorization,
+                                       RetryPolicy retryPolicy) {
+        this(apiUrl, userAgent, authorization, null, null, null, null, null, retryPolicy, null);
+    }
+
+    public PrometheusRemoteWriteClient(String apiUrl, String userAgent, String authorization,
+                                       WriteAheadLog writeAheadLog) {
+        this(apiUrl, userAgent, authorization, null, null, null, null, null, null, writeAheadLog);
+    }
+
+    /**
+     * Creates a client compressing bodies with the given codec (snappy by default) and asking encoders for the
+     * given protocol version (1.0 by default). A receiver answering 415 to a 2.0 request switches the client
+     * back to 1.0 for all following requests; 2.0 requests encoded before that, including the rejected one, are
+     * re-encoded as 1.0 when they are sent. The histogram format tells encoders which native histograms the
+     * receiver accepts ({@link HistogramFormat#CLASSIC} by default). Encoders cut requests at
+     * {@code maxRequestBytes} uncompressed bytes ({@value RemoteWriteSink#DEFAULT_MAX_REQUEST_BYTES} by default)
+     * and, if given, at {@code maxSeriesPerRequest} series, whichever comes first. With a write-ahead log
+     * every compressed request is appended to it and delivered from a background thread, replaying pending
+     * requests in order once the endpoint is reachable again. Without one, requests are retried in the calling
+     * thread within the policy's time budget.
+     */
+    @Builder
+    public PrometheusRemoteWriteClient(String apiUrl, String userAgent, String authorization,
+                                       CompressionCodec codec, RemoteWriteProtocol protocol,
+                                       HistogramFormat histogramFormat, Integer maxRequestBytes,
+                                       Integer maxSeriesPerRequest, RetryPolicy retryPolicy,
+                                       WriteAheadLog writeAheadLog) {
+        if (maxRequestBytes != null && maxRequestBytes <= 0) {
+            throw new IllegalArgumentException("MaxRequestBytes must be greater than 0");
+        }
+        if (maxSeriesPerRequest != null && maxSeriesPerRequest <= 0) {
+            throw new IllegalArgumentException("MaxSeriesPerRequest must be greater than 0");
+        }
         this.apiUrl = apiUrl;
+        this.uri = URI.create(apiUrl);
         this.userAgent = userAgent;
         this.authorization = authorization;
         this.httpClient = HttpClient.newBuilder().build();
+        this.codec = codec != null ? codec : new SnappyCodec();
+        this.protocol = protocol != null ? protocol : RemoteWriteProtocol.V1;
+        this.histogramFormat = histogramFormat != null ? histogramFormat : HistogramFormat.CLASSIC;
+        this.maxRequestBytes = maxRequestBytes != null ? maxRequestBytes : DEFAULT_MAX_REQUEST_BYTES;
+        this.maxSeriesPerRequest = maxSeriesPerRequest != null ? maxSeriesPerRequest : Integer.MAX_VALUE;
+        this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.defaults();
+        this.writeAheadLog = writeAheadLog;
+        if (writeAheadLog != null) {
+            this.walSender = new Thread(this::replayWriteAheadLog, "remote-write-wal-sender");
+            this.walSender.setDaemon(true);
+            this.walSender.start();
+        } else {
+            this.walSender = null;
+        }
+    }
+
+    /**
+     * Registers request latency by status class, request sizes and sample outcomes. The latency histogram has
+     * a fixed set of buckets, so the client adds a bounded number of series to the exported registry.
+     * In write-ahead log mode samples count as sent once they are appended to the log.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindTo(registry, Tags.empty());
+    }
+
+    /**
+     * Same as {@link #bindTo(MeterRegistry)} with the given tags added to every meter, so that several clients
+     * can report to one registry.
+     */
+    public void bindTo(MeterRegistry registry, Iterable<Tag> tags) {
+        Timer[] timers = new Timer[STATUS_CLASSES.length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = Timer.builder("exporter.request")
+                    .description("Remote-write request latency")
+                    .tag("status", STATUS_CLASSES[i])
+                    .tags(tags)
+                    .serviceLevelObjectives(REQUEST_LATENCY_BUCKETS)
+                    .register(registry);
+        }
+        requestTimers = timers;
+        uncompressedBytes = DistributionSummary.builder("exporter.request.uncompressed")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry);
+        compressedBytes = DistributionSummary.builder("exporter.request.compressed")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry);
+        requestSeries = DistributionSummary.builder("exporter.request.series")
+                .description("Series per remote-write request")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("exporter.remote.samples", sentSamples, LongAdder::sum)
+                .tag("result", "sent")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("exporter.remote.samples", droppedSamples, LongAdder::sum)
+                .tag("result", "dropped")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("exporter.remote.samples", retriedSamples, LongAdder::sum)
+                .tag("result", "retried")
+                .tags(tags)
+                .register(registry);
+    }
+
+    @Override
+    public RemoteWriteProtocol protocol() {
+        return protocol;
+    }
+
+    @Override
+    public HistogramFormat histogramFormat() {
+        return histogramFormat;
+    }
+
+    @Override
+    public int maxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    @Override
+    public int maxSeriesPerRequest() {
+        return maxSeriesPerRequest;
+    }
+
+    @Override
+    public void write(int shard, WriteRequestBuffer writeRequest) {
+        write(writeRequest);
     }
 
     public void write(RemoteWriteRequest.WriteRequest writeRequest) {
+        byte[] uncompressed = writeRequest.toByteArray();
+        write(uncompressed, 0, uncompressed.length, writeRequest.getTimeseriesCount());
+    }
+
+    public void write(WriteRequestBuffer writeRequest) {
+        write(writeRequest.buffer(), writeRequest.getProtocol(), writeRequest.getSeriesCount());
+    }
+
+    /**
+     * Sends an already encoded 1.0 {@code WriteRequest}.
+     */
+    public void write(byte[] uncompressed, int offset, int length) {
+        write(uncompressed, offset, length, 0);
+    }
+
+    private void write(byte[] uncompressed, int offset, int length, int seriesCount) {
+        ByteBuffer buffer = bufferPool.acquire(length);
+        try {
+            write(buffer.put(uncompressed, offset, length).flip(), RemoteWriteProtocol.V1, seriesCount);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void write(ByteBuffer uncompressed, RemoteWriteProtocol bodyProtocol, int seriesCount) {
+        ByteBuffer body;
+        try {
+            body = compress(uncompressed, seriesCount);
+        } catch (IOException e) {
+            log.error("Unable to compress remote-write request to {}", apiUrl, e);
+            droppedSamples.add(seriesCount);
+            return;
+        }
+        try {
+            writeCompressed(body, bodyProtocol, seriesCount);
+        } finally {
+            release(body);
+        }
+    }
+
+    /**
+     * Compresses the remaining bytes of a direct buffer with the client's codec into a pooled direct buffer,
+     * which must be handed back with {@link #release(ByteBuffer)}.
+     */
+    ByteBuffer compress(ByteBuffer uncompressed, int seriesCount) throws IOException {
+        ByteBuffer compressed = bufferPool.acquire(codec.maxCompressedLength(uncompressed.remaining()));
         try {
-            byte[] uncompressed = writeRequest.toByteArray();
-            byte[] compressed = new byte[Snappy.maxCompressedLength(uncompressed.length)];
-            int compressedLength = Snappy.compress(uncompressed, 0, uncompressed.length, compressed, 0);
-            byte[] body = Arrays.copyOf(compressed, compressedLength);
-
-            var httpRequest = HttpRequest.newBuilder()
-                    .uri(new URI(apiUrl))
-                    .headers(
-                            "Authorization", "Bearer " + authorization,
-                            "Content-Encoding", "snappy",
-                            "Content-Type", "application/x-protobuf",
-                            "User-Agent", userAgent,
-                            "X-Prometheus-Remote-Write-Version", "0.1.0"
-                    )
-                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
-                    .build();
+            int uncompressedLength = uncompressed.remaining();
+            int compressedLength = codec.compress(uncompressed, compressed);
+            DistributionSummary uncompressedSummary = uncompressedBytes;
+            DistributionSummary compressedSummary = compressedBytes;
+            DistributionSummary seriesSummary = requestSeries;
+            if (uncompressedSummary != null && compressedSummary != null && seriesSummary != null) {
+                uncompressedSummary.record(uncompressedLength);
+                compressedSummary.record(compressedLength);
+                seriesSummary.record(seriesCount);
+            }
+            return compressed.position(0).limit(compressedLength);
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(compressed);
+            throw e;
+        }
+    }
+
+    void release(ByteBuffer compressed) {
+        bufferPool.release(compressed);
+    }
+
+    void writeCompressed(ByteBuffer body, RemoteWriteProtocol bodyProtocol, int seriesCount) {
+        if (bodyProtocol == RemoteWriteProtocol.V2 && protocol == RemoteWriteProtocol.V1) {
+            writeDowngraded(body, seriesCount);
+            return;
+        }
+        if (writeAheadLog != null) {
+            try {
+                writeAheadLog.append(bodyProtocol.ordinal(), body.duplicate());
+                sentSamples.add(seriesCount);
+            } catch (Exception e) {
+                log.error("Unable to append remote-write request to write-ahead log", e);
+                droppedSamples.add(seriesCount);
+            }
+            return;
+        }
+
+        long deadline = System.nanoTime() + retryPolicy.getTimeBudget().toNanos();
+        for (int attempt = 0; ; attempt++) {
+            long delayMillis;
+            try {
+                HttpResponse<String> response = send(body, bodyProtocol,
+                        Duration.ofNanos(deadline - System.nanoTime()));
+                int statusCode = response.statusCode();
+                if (statusCode < 400) {
+                    sentSamples.add(seriesCount);
+                    return;
+                }
+                if (statusCode == 415 && bodyProtocol == RemoteWriteProtocol.V2) {
+                    fallBackToV1(response);
+                    writeDowngraded(body, seriesCount);
+                    return;
+                }
+                if (!retryPolicy.isRetryable(statusCode)) {
+                    log.warn("Failed to write metrics. Status Code: {}, Response Body: {}",
+                            statusCode, response.body());
+                    droppedSamples.add(seriesCount);
+                    return;
+                }
+                delayMillis = retryPolicy.delayMillis(attempt, response.headers().firstValue("Retry-After"));
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) > deadline) {
+                    log.warn("Failed to write metrics after {} attempts. Status Code: {}, Response Body: {}",
+                            attempt + 1, statusCode, response.body());
+                    droppedSamples.add(seriesCount);
+                    return;
+                }
+            } catch (IOException e) {
+                delayMillis = retryPolicy.delayMillis(attempt, Optional.empty());
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) > deadline) {
+                    log.error("Unable to send remote-write request to {} after {} attempts", apiUrl, attempt + 1, e);
+                    droppedSamples.add(seriesCount);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedSamples.add(seriesCount);
+                return;
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedSamples.add(seriesCount);
+                return;
+            }
+            retriedSamples.add(seriesCount);
+        }
+    }
+
+    private void fallBackToV1(HttpResponse<String> response) {
+        if (protocol != RemoteWriteProtocol.V1) {
+            log.warn("{} does not support remote-write 2.0 (Status Code: {}, Response Body: {}), "
+                    + "falling back to 1.0", apiUrl, response.statusCode(), response.body());
+            protocol = RemoteWriteProtocol.V1;
+        }
+    }
+
+    private void writeDowngraded(ByteBuffer body, int seriesCount) {
+        ByteBuffer downgraded;
+        try {
+            downgraded = downgrade(body);
+        } catch (IOException e) {
+            log.error("Unable to re-encode remote-write 2.0 request to {} as 1.0", apiUrl, e);
+            droppedSamples.add(seriesCount);
+            return;
+        }
+        writeCompressed(downgraded, RemoteWriteProtocol.V1, seriesCount);
+    }
 
+    /**
+     * Re-encodes a compressed 2.0 body, which may be a heap buffer read from the write-ahead log, as a compressed
+     * 1.0 body. This only happens to requests encoded before the client fell back, so the result is a heap copy
+     * rather than a pooled buffer.
+     */
+    private ByteBuffer downgrade(ByteBuffer body) throws IOException {
+        ByteBuffer compressed = bufferPool.acquire(body.remaining());
+        ByteBuffer uncompressed = null;
+        ByteBuffer encoded = null;
+        try {
+            compressed.put(body.duplicate()).flip();
+            uncompressed = bufferPool.acquire(codec.uncompressedLength(compressed.duplicate()));
+            uncompressed.limit(codec.decompress(compressed, uncompressed)).position(0);
+            byte[] writeRequest = RemoteWriteTranscoder.toV1(uncompressed);
+            encoded = bufferPool.acquire(writeRequest.length);
+            ByteBuffer recompressed = compress(encoded.put(writeRequest).flip());
+            try {
+                byte[] copy = new byte[recompressed.remaining()];
+                recompressed.get(copy);
+                return ByteBuffer.wrap(copy);
+            } finally {
+                release(recompressed);
+            }
+        } finally {
+            bufferPool.release(compressed);
+            if (uncompressed != null) {
+                bufferPool.release(uncompressed);
+            }
+            if (encoded != null) {
+                bufferPool.release(encoded);
+            }
+        }
+    }
+
+    /**
+     * Posts the body and waits for the response for at most {@code timeout}, but no less than a second.
+     * A receiver that does not answer in time fails the request with an {@link java.net.http.HttpTimeoutException},
+     * which is retried like any other I/O error.
+     */
+    private HttpResponse<String> send(ByteBuffer body, RemoteWriteProtocol bodyProtocol, Duration timeout)
+            throws IOException, InterruptedException {
+        var httpRequest = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(timeout.compareTo(MIN_REQUEST_TIMEOUT) > 0 ? timeout : MIN_REQUEST_TIMEOUT)
+                .headers(
+                        "Authorization", "Bearer " + authorization,
+                        "Content-Encoding", codec.contentEncoding(),
+                        "Content-Type", bodyProtocol.getContentType(),
+                        "User-Agent", userAgent,
+                        "X-Prometheus-Remote-Write-Version", bodyProtocol.getVersion()
+                )
+                .POST(new ByteBufferBodyPublisher(body))
+                .build();
+
+        long start = System.nanoTime();
+        try {
             HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() >= 400) {
-                log.warn("Failed to write metrics. Status Code: {}, Response Body: {}",
-                        response.statusCode(), response.body());
+            recordRequest(response.statusCode() / 100 - 1, start);
+            return response;
+        } catch (IOException e) {
+            recordRequest(STATUS_CLASS_ERROR, start);
+            throw e;
+        }
+    }
+
+    private void recordRequest(int statusClass, long startNanos) {
+        Timer[] timers = requestTimers;
+        if (timers != null) {
+            int index = statusClass >= 0 && statusClass < STATUS_CLASS_ERROR ? statusClass : STATUS_CLASS_ERROR;
+            timers[index].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void replayWriteAheadLog() {
+        int attempt = 0;
+        while (running) {
+            try {
+                WriteAheadLog.Record record = writeAheadLog.next(WAL_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    continue;
+                }
+                RemoteWriteProtocol bodyProtocol = RemoteWriteProtocol.values()[record.type()];
+                ByteBuffer body = ByteBuffer.wrap(record.data());
+                if (bodyProtocol == RemoteWriteProtocol.V2 && protocol == RemoteWriteProtocol.V1) {
+                    try {
+                        body = downgrade(body);
+                        bodyProtocol = RemoteWriteProtocol.V1;
+                    } catch (IOException e) {
+                        log.error("Unable to re-encode remote-write 2.0 request to {} as 1.0, dropping it",
+                                apiUrl, e);
+                        writeAheadLog.ack();
+                        continue;
+                    }
+                }
+
+                Optional<String> retryAfter = Optional.empty();
+                boolean retry;
+                try {
+                    HttpResponse<String> response = send(body, bodyProtocol, retryPolicy.getTimeBudget());
+                    int statusCode = response.statusCode();
+                    if (statusCode == 415 && bodyProtocol == RemoteWriteProtocol.V2) {
+                        fallBackToV1(response);
+                        continue;
+                    }
+                    if (statusCode >= 400) {
+                        log.warn("Failed to write metrics. Status Code: {}, Response Body: {}",
+                                statusCode, response.body());
+                    }
+                    retry = statusCode >= 400 && retryPolicy.isRetryable(statusCode);
+                    retryAfter = response.headers().firstValue("Retry-After");
+                } catch (IOException e) {
+                    log.warn("Unable to send remote-write request to {}, will retry from write-ahead log: {}",
+                            apiUrl, e.toString());
+                    retry = true;
+                }
+
+                if (retry) {
+                    TimeUnit.MILLISECONDS.sleep(retryPolicy.delayMillis(attempt++, retryAfter));
+                } else {
+                    writeAheadLog.ack();
+                    attempt = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Write-ahead log sender for {} failed", apiUrl, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (walSender != null) {
+            walSender.interrupt();
+            try {
+                walSender.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } catch (Exception e) {
-            log.error("Unable to send remote-write request to {} due to exception", apiUrl, e);
+            writeAheadLog.close();
         }
     }
 }
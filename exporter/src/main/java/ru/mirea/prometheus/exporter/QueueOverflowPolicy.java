@@ -0,0 +1,18 @@
+package ru.mirea.prometheus.exporter;
+
+/**
+ * What a {@link ShardedSender} drops when a request arrives at a full shard queue. The export cycle is never
+ * blocked, so a slow endpoint only loses its own data.
+ */
+public enum QueueOverflowPolicy {
+
+    /**
+     * Drops the arriving request, keeping the queued ones.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drops the oldest queued request to make room, so the endpoint catches up with the freshest data.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,269 @@
+package ru.mirea.prometheus.exporter;
+
+import com.google.protobuf.CodedOutputStream;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.prometheus.metrics.model.snapshots.Labels;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Filters snapshots before they are encoded: metrics are kept or dropped by a regex on their Prometheus name,
+ * labels are dropped by a regex on their name, and every metric may be limited to a number of distinct label
+ * sets per window, so that a runaway tag cannot flood the receiver. Regexes are fully anchored, as in
+ * Prometheus relabeling, and only evaluated once per metric name and label name. The labels a data point is
+ * exported with are cached per metric and label set, so an unchanged series costs one lookup per cycle; label
+ * sets not seen during a cycle are evicted by {@link #sweep()}.
+ * <p>
+ * Series over the limit are dropped and counted; the limit is tracked with a {@link SeriesLimiter} per metric,
+ * whose memory is bounded by the limit rather than by the number of series offered. The limit is checked
+ * before a label set is cached, so rejected series do not grow the cache either.
+ */
+@Slf4j
+public class Relabeler implements MeterBinder {
+
+    public static final Duration DEFAULT_LIMIT_WINDOW = Duration.ofHours(1);
+
+    static final MetricRules KEEP_ALL = new MetricRules(null, "", null);
+
+    private final Pattern keepMetrics;
+    private final Pattern dropMetrics;
+    private final Pattern dropLabels;
+    private final int maxSeriesPerMetric;
+    private final long limitWindowMillis;
+
+    private final Map<String, MetricRules> metrics = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> droppedLabelNames = new ConcurrentHashMap<>();
+    private final LongAdder droppedByMetric = new LongAdder();
+    private final LongAdder droppedByLimit = new LongAdder();
+
+    private volatile int cycle;
+
+    /**
+     * Creates a relabeler keeping only metrics matching {@code keepMetrics} (all by default), then dropping
+     * those matching {@code dropMetrics} and labels matching {@code dropLabels}. A positive
+     * {@code maxSeriesPerMetric} limits the label sets of every metric per {@code limitWindow}
+     * ({@link #DEFAULT_LIMIT_WINDOW} by default).
+     */
+    @Builder
+    public Relabeler(String keepMetrics, String dropMetrics, String dropLabels, Integer maxSeriesPerMetric,
+                     Duration limitWindow) {
+        if (maxSeriesPerMetric != null && maxSeriesPerMetric < 0) {
+            throw new IllegalArgumentException("MaxSeriesPerMetric must not be negative");
+        }
+        if (limitWindow != null && (limitWindow.isNegative() || limitWindow.isZero())) {
+            throw new IllegalArgumentException("LimitWindow must be greater than 0");
+        }
+        this.keepMetrics = compile(keepMetrics);
+        this.dropMetrics = compile(dropMetrics);
+        this.dropLabels = compile(dropLabels);
+        this.maxSeriesPerMetric = maxSeriesPerMetric != null ? maxSeriesPerMetric : 0;
+        this.limitWindowMillis = (limitWindow != null ? limitWindow : DEFAULT_LIMIT_WINDOW).toMillis();
+    }
+
+    private static Pattern compile(String regex) {
+        return regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("exporter.relabel.dropped.series", droppedByMetric, LongAdder::sum)
+                .tag("reason", "metric")
+                .register(registry);
+        FunctionCounter.builder("exporter.relabel.dropped.series", droppedByLimit, LongAdder::sum)
+                .tag("reason", "limit")
+                .register(registry);
+        Gauge.builder("exporter.relabel.limited.metrics", metrics, Relabeler::limitedMetrics)
+                .description("Metrics that reached their series limit in the current window")
+                .register(registry);
+    }
+
+    private static int limitedMetrics(Map<String, MetricRules> metrics) {
+        int limited = 0;
+        for (MetricRules rules : metrics.values()) {
+            if (rules.limiter != null && rules.limiter.isLimited()) {
+                limited++;
+            }
+        }
+        return limited;
+    }
+
+    /**
+     * Returns the rules for the data points of a metric, or {@code null} if the metric is dropped; its
+     * {@code dataPoints} are then counted as dropped.
+     */
+    MetricRules rules(String metricName, int dataPoints) {
+        MetricRules rules = metrics.computeIfAbsent(metricName, this::createRules);
+        if (rules == MetricRules.DROPPED) {
+            droppedByMetric.add(dataPoints);
+            return null;
+        }
+        return rules;
+    }
+
+    private MetricRules createRules(String metricName) {
+        if ((keepMetrics != null && !keepMetrics.matcher(metricName).matches())
+                || (dropMetrics != null && dropMetrics.matcher(metricName).matches())) {
+            return MetricRules.DROPPED;
+        }
+        SeriesLimiter limiter = maxSeriesPerMetric > 0
+                ? new SeriesLimiter(maxSeriesPerMetric, limitWindowMillis)
+                : null;
+        return new MetricRules(this, metricName, limiter);
+    }
+
+    /**
+     * Evicts cached label sets that were not applied since the previous sweep and starts a new cycle.
+     */
+    void sweep() {
+        int current = cycle;
+        for (MetricRules rules : metrics.values()) {
+            rules.sweep(current);
+        }
+        cycle = current + 1;
+    }
+
+    private boolean isDropped(String labelName) {
+        return droppedLabelNames.computeIfAbsent(labelName, name -> dropLabels.matcher(name).matches());
+    }
+
+    /**
+     * Applies the label rules and the series limit to the data points of one metric.
+     */
+    static final class MetricRules {
+
+        private static final MetricRules DROPPED = new MetricRules(null, "", null);
+
+        private final Relabeler relabeler;
+        private final String metricName;
+        private final SeriesLimiter limiter;
+        private final Map<Labels, ReducedLabels> reduced = new ConcurrentHashMap<>();
+
+        private MetricRules(Relabeler relabeler, String metricName, SeriesLimiter limiter) {
+            this.relabeler = relabeler;
+            this.metricName = metricName;
+            this.limiter = limiter;
+        }
+
+        /**
+         * Returns the labels to export a data point with, which are the given ones if no label is dropped,
+         * or {@code null} if the data point is over the series limit of the metric.
+         */
+        Labels apply(Labels labels, long timestamp) {
+            if (relabeler == null || (relabeler.dropLabels == null && limiter == null)) {
+                return labels;
+            }
+            ReducedLabels cached = reduced.get(labels);
+            if (cached == null) {
+                long hash = seriesHash(labels);
+                if (!admit(hash, timestamp)) {
+                    return null;
+                }
+                cached = new ReducedLabels(dropLabels(labels), hash);
+                reduced.put(labels, cached);
+            } else if (!admit(cached.hash, timestamp)) {
+                return null;
+            }
+            cached.cycle = relabeler.cycle;
+            return cached.labels;
+        }
+
+        private boolean admit(long hash, long timestamp) {
+            if (limiter == null) {
+                return true;
+            }
+            boolean limited = limiter.isLimited();
+            if (limiter.admit(hash, timestamp)) {
+                return true;
+            }
+            if (!limited) {
+                log.warn("Metric {} exceeds {} series, dropping new series until the window ends",
+                        metricName, relabeler.maxSeriesPerMetric);
+            }
+            relabeler.droppedByLimit.increment();
+            return false;
+        }
+
+        private Labels dropLabels(Labels labels) {
+            if (relabeler.dropLabels == null) {
+                return labels;
+            }
+            int dropped = 0;
+            for (int i = 0; i < labels.size(); i++) {
+                if (relabeler.isDropped(labels.getName(i))) {
+                    dropped++;
+                }
+            }
+            if (dropped == 0) {
+                return labels;
+            }
+            Labels.Builder builder = Labels.builder();
+            for (int i = 0; i < labels.size(); i++) {
+                if (!relabeler.isDropped(labels.getName(i))) {
+                    builder.label(labels.getName(i), labels.getValue(i));
+                }
+            }
+            return builder.build();
+        }
+
+        private void sweep(int current) {
+            reduced.values().removeIf(cached -> cached.cycle != current);
+        }
+
+        /**
+         * Returns the {@link SeriesHash} of the encoded labels that are kept, without building them, so that the
+         * limit can be checked before anything is cached. {@link Labels} are sorted by name, so the encoded block
+         * is the same for the same label set.
+         */
+        private long seriesHash(Labels labels) {
+            int size = 0;
+            for (int i = 0; i < labels.size(); i++) {
+                if (isKept(labels.getName(i))) {
+                    size += RemoteWriteEncoder.labelSize(labels.getName(i), labels.getValue(i));
+                }
+            }
+            byte[] encoded = new byte[size];
+            CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+            try {
+                for (int i = 0; i < labels.size(); i++) {
+                    if (isKept(labels.getName(i))) {
+                        RemoteWriteEncoder.writeLabel(output, labels.getName(i), labels.getValue(i));
+                    }
+                }
+                output.checkNoSpaceLeft();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return SeriesHash.hash(encoded);
+        }
+
+        private boolean isKept(String labelName) {
+            return relabeler.dropLabels == null || !relabeler.isDropped(labelName);
+        }
+    }
+
+    /**
+     * Labels a data point is exported with, their series hash, and the cycle they were last applied in.
+     */
+    private static final class ReducedLabels {
+
+        private final Labels labels;
+        private final long hash;
+        private volatile int cycle;
+
+        private ReducedLabels(Labels labels, long hash) {
+            this.labels = labels;
+            this.hash = hash;
+        }
+    }
+}
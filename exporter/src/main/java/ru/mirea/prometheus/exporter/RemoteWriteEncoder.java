@@ -0,0 +1,457 @@
+package ru.mirea.prometheus.exporter;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Writes {@code remote_write_request.proto} messages straight into a {@link WriteRequestBuffer}
+ * without materializing {@link RemoteWriteRequest.TimeSeries} objects. Label blocks come from a
+ * {@link SeriesLabelCache}, so only the sample is encoded for series seen in a previous cycle.
+ * <p>
+ * When the sink asks for {@link RemoteWriteProtocol#V2}, {@code remote_write_v2_request.proto} is written
+ * instead: label strings are interned into a per-request symbol table, every series carries the metadata
+ * of its metric, and native histograms are sent as such. The symbols are appended after the series when the
+ * request is flushed, which protobuf decoders accept since field order is not significant.
+ * <p>
+ * Requests are cut by their encoded size: the size of every series, and of the symbols it adds, is known
+ * before it is written, so a series that would push a request past {@link RemoteWriteSink#maxRequestBytes()}
+ * goes to the next one. {@link RemoteWriteSink#maxSeriesPerRequest()} additionally caps the series count.
+ */
+public class RemoteWriteEncoder {
+
+    private static final int WRITE_REQUEST_TIMESERIES = 1;
+    private static final int TIMESERIES_LABELS = 1;
+    private static final int TIMESERIES_SAMPLES = 2;
+    private static final int TIMESERIES_HISTOGRAMS = 4;
+    private static final int LABEL_NAME = 1;
+    private static final int LABEL_VALUE = 2;
+    private static final int SAMPLE_VALUE = 1;
+    private static final int SAMPLE_TIMESTAMP = 2;
+
+    private static final int V2_REQUEST_SYMBOLS = 4;
+    private static final int V2_REQUEST_TIMESERIES = 5;
+    private static final int V2_TIMESERIES_LABELS_REFS = 1;
+    private static final int V2_TIMESERIES_SAMPLES = 2;
+    private static final int V2_TIMESERIES_HISTOGRAMS = 3;
+    private static final int V2_TIMESERIES_METADATA = 5;
+    private static final int V2_METADATA_TYPE = 1;
+    private static final int V2_METADATA_HELP_REF = 3;
+    private static final int V2_METADATA_UNIT_REF = 4;
+
+    private final SeriesLabelCache labelCache;
+    private final int seriesCap;
+    private final RemoteWriteSink sink;
+    private final ChangedSampleFilter sampleFilter;
+    private final NativeHistogramEncoder histogramEncoder = new NativeHistogramEncoder();
+    private WriteRequestBuffer[] buffers;
+    private RemoteWriteProtocol protocol;
+    private HistogramFormat histogramFormat;
+    private int maxSeriesPerRequest;
+    private int maxRequestBytes;
+    private int[] labelRefs = new int[32];
+
+    private MetricType metricType = MetricType.UNSPECIFIED;
+    private String help = "";
+    private String unit = "";
+
+    public RemoteWriteEncoder(SystemInfo systemInfo, int maxSeriesPerRequest, Consumer<WriteRequestBuffer> sink) {
+        this(new SeriesLabelCache(systemInfo), maxSeriesPerRequest, (shard, writeRequest) -> sink.accept(writeRequest));
+    }
+
+    public RemoteWriteEncoder(SeriesLabelCache labelCache, int maxSeriesPerRequest, RemoteWriteSink sink) {
+        this(labelCache, maxSeriesPerRequest, sink, null);
+    }
+
+    /**
+     * Creates an encoder that cuts requests by the limits of the sink only and writes samples accepted by the
+     * given filter, or every sample when it is {@code null}.
+     */
+    public RemoteWriteEncoder(SeriesLabelCache labelCache, RemoteWriteSink sink, ChangedSampleFilter sampleFilter) {
+        this(labelCache, Integer.MAX_VALUE, sink, sampleFilter);
+    }
+
+    /**
+     * Creates an encoder that only writes samples accepted by the given filter, or every sample when it is
+     * {@code null}. Requests hold at most {@code maxSeriesPerRequest} series, or fewer if the sink says so.
+     */
+    public RemoteWriteEncoder(SeriesLabelCache labelCache, int maxSeriesPerRequest, RemoteWriteSink sink,
+                              ChangedSampleFilter sampleFilter) {
+        if (maxSeriesPerRequest <= 0) {
+            throw new IllegalArgumentException("MaxSeriesPerRequest must be greater than 0");
+        }
+        this.labelCache = labelCache;
+        this.seriesCap = maxSeriesPerRequest;
+        this.sink = sink;
+        this.sampleFilter = sampleFilter;
+        this.buffers = new WriteRequestBuffer[0];
+        refreshSinkSettings();
+    }
+
+    /**
+     * Sets the metadata attached to the following series when encoding for {@link RemoteWriteProtocol#V2}.
+     */
+    public void beginMetric(MetricMetadata metadata, MetricType type) {
+        this.metricType = type;
+        this.help = metadata.getHelp() != null ? metadata.getHelp() : "";
+        this.unit = metadata.getUnit() != null ? metadata.getUnit().toString() : "";
+    }
+
+    public boolean supportsNativeHistograms() {
+        return protocol == RemoteWriteProtocol.V2 || histogramFormat != HistogramFormat.CLASSIC;
+    }
+
+    public boolean supportsCustomBucketHistograms() {
+        return histogramFormat == HistogramFormat.NATIVE_WITH_CUSTOM_BUCKETS;
+    }
+
+    /**
+     * Writes the native histogram data of a data point as one histogram series.
+     * Must only be called when {@link #supportsNativeHistograms()} is {@code true}.
+     */
+    public void nativeHistogram(String name, Labels labels, HistogramSnapshot.HistogramDataPointSnapshot snap,
+                                long timestamp) {
+        histogram(name, labels, histogramEncoder.prepare(snap, isGaugeHistogram(), timestamp));
+    }
+
+    /**
+     * Writes the classic buckets of a data point as one native histogram series with custom buckets.
+     * Must only be called when {@link #supportsCustomBucketHistograms()} is {@code true}.
+     */
+    public void customBucketHistogram(String name, Labels labels, HistogramSnapshot.HistogramDataPointSnapshot snap,
+                                      long timestamp) {
+        histogram(name, labels, histogramEncoder.prepareCustomBuckets(snap, isGaugeHistogram(), timestamp));
+    }
+
+    private boolean isGaugeHistogram() {
+        return metricType == MetricType.GAUGE_HISTOGRAM;
+    }
+
+    private void histogram(String name, Labels labels, int histogramSize) {
+        SeriesLabelCache.Entry series = labelCache.labels(name, labels, null, null, 0);
+        int shard = shard(series);
+        try {
+            if (protocol == RemoteWriteProtocol.V2) {
+                writeV2Series(shard, series, 0, 0, histogramSize);
+            } else {
+                int timeSeriesSize = series.labels.length + fieldSize(histogramSize);
+                WriteRequestBuffer buffer = reserve(shard, fieldSize(timeSeriesSize));
+                writeHistogramSeries(buffer.output(), series.labels, timeSeriesSize, histogramSize);
+                seriesWritten(shard, buffer, fieldSize(timeSeriesSize));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void series(String name, Labels labels, double value, long timestamp) {
+        series(labelCache.labels(name, labels, null, null, 0), value, timestamp);
+    }
+
+    public void series(String name, Labels labels, String extraLabelName, String extraLabelValue,
+                       double value, long timestamp) {
+        series(labelCache.labels(name, labels, extraLabelName, extraLabelValue, 0), value, timestamp);
+    }
+
+    /**
+     * Same as {@link #series(String, Labels, String, String, double, long)} for numeric label values
+     * such as {@code le} and {@code quantile}; the value is only formatted when the series is not cached.
+     */
+    public void series(String name, Labels labels, String extraLabelName, double extraLabelValue,
+                       double value, long timestamp) {
+        series(labelCache.labels(name, labels, extraLabelName, null, extraLabelValue), value, timestamp);
+    }
+
+    private void series(SeriesLabelCache.Entry series, double value, long timestamp) {
+        if (sampleFilter != null && !sampleFilter.shouldSend(series.id, value, timestamp)) {
+            return;
+        }
+        int shard = shard(series);
+        try {
+            if (protocol == RemoteWriteProtocol.V2) {
+                writeV2Series(shard, series, value, timestamp, -1);
+            } else {
+                int sampleSize = sampleSize(value, timestamp);
+                int timeSeriesSize = series.labels.length + fieldSize(sampleSize);
+                WriteRequestBuffer buffer = reserve(shard, fieldSize(timeSeriesSize));
+                writeSeries(buffer.output(), series.labels, timeSeriesSize, sampleSize, value, timestamp);
+                seriesWritten(shard, buffer, fieldSize(timeSeriesSize));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a series already encoded as a 1.0 {@code TimeSeries} message, found in {@code length} bytes at
+     * {@code offset} of the source buffer, and routes it by the given hash of its labels. Only valid while the
+     * sink asks for {@link RemoteWriteProtocol#V1}.
+     */
+    public void encodedSeries(ByteBuffer source, int offset, int length, int labelsHash) {
+        if (protocol != RemoteWriteProtocol.V1) {
+            throw new IllegalStateException("Encoded series can only be appended to remote-write 1.0 requests");
+        }
+        int shard = shard(labelsHash);
+        int size = fieldSize(length);
+        WriteRequestBuffer buffer = reserve(shard, size);
+        int limit = source.limit();
+        try {
+            CodedOutputStream output = buffer.output();
+            output.writeTag(WRITE_REQUEST_TIMESERIES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(length);
+            source.limit(offset + length).position(offset);
+            output.write(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            source.limit(limit);
+        }
+        seriesWritten(shard, buffer, size);
+    }
+
+    private int shard(SeriesLabelCache.Entry series) {
+        return shard(series.hash);
+    }
+
+    private int shard(int hash) {
+        return buffers.length == 1 ? 0 : Math.floorMod(hash, buffers.length);
+    }
+
+    /**
+     * Returns the buffer of the shard, flushing it first if a series of the given encoded size would not fit.
+     */
+    private WriteRequestBuffer reserve(int shard, int size) {
+        WriteRequestBuffer buffer = buffers[shard];
+        if (exceedsLimit(buffer, size)) {
+            flush(shard);
+        }
+        return buffer;
+    }
+
+    private boolean exceedsLimit(WriteRequestBuffer buffer, int size) {
+        return !buffer.isEmpty() && buffer.getEncodedSize() + size > maxRequestBytes;
+    }
+
+    private void seriesWritten(int shard, WriteRequestBuffer buffer, int size) {
+        buffer.seriesWritten(size);
+        if (buffer.getSeriesCount() >= maxSeriesPerRequest || buffer.getEncodedSize() >= maxRequestBytes) {
+            flush(shard);
+        }
+    }
+
+    /**
+     * Flushes the last requests of an export cycle, evicts cached series and sample filter state of series that
+     * disappeared from the registry and picks up a changed shard count or protocol of the sink.
+     */
+    public void finishCycle() {
+        flush();
+        labelCache.sweep();
+        if (sampleFilter != null) {
+            sampleFilter.sweep();
+        }
+        refreshSinkSettings();
+    }
+
+    /**
+     * Hands every non-empty buffered request to the sink and resets the buffers for reuse.
+     */
+    public void flush() {
+        for (int shard = 0; shard < buffers.length; shard++) {
+            flush(shard);
+        }
+    }
+
+    private void flush(int shard) {
+        WriteRequestBuffer buffer = buffers[shard];
+        flush(shard, buffer.getProtocol() == RemoteWriteProtocol.V2 ? buffer.symbolTable().size() : 0);
+    }
+
+    /**
+     * Hands the buffered request to the sink with the first {@code symbolCount} symbols of its table, which
+     * leaves out symbols interned for a series that did not fit anymore.
+     */
+    private void flush(int shard, int symbolCount) {
+        WriteRequestBuffer buffer = buffers[shard];
+        if (buffer.isEmpty()) {
+            return;
+        }
+        try {
+            if (buffer.getProtocol() == RemoteWriteProtocol.V2) {
+                writeSymbols(buffer, symbolCount);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flushEncoded();
+        try {
+            sink.write(shard, buffer);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    private void refreshSinkSettings() {
+        protocol = sink.protocol();
+        histogramFormat = sink.histogramFormat();
+        maxSeriesPerRequest = Math.min(seriesCap, sink.maxSeriesPerRequest());
+        maxRequestBytes = sink.maxRequestBytes();
+        int shards = Math.max(1, sink.shards());
+        if (shards != buffers.length) {
+            WriteRequestBuffer[] resized = Arrays.copyOf(buffers, shards);
+            for (int i = buffers.length; i < shards; i++) {
+                resized[i] = new WriteRequestBuffer();
+            }
+            buffers = resized;
+        }
+        for (WriteRequestBuffer buffer : buffers) {
+            buffer.setProtocol(protocol);
+        }
+    }
+
+    private void writeSeries(CodedOutputStream output, byte[] encodedLabels, int timeSeriesSize,
+                             int sampleSize, double value, long timestamp) throws IOException {
+        output.writeTag(WRITE_REQUEST_TIMESERIES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(timeSeriesSize);
+        output.writeRawBytes(encodedLabels);
+
+        output.writeTag(TIMESERIES_SAMPLES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(sampleSize);
+        output.writeDouble(SAMPLE_VALUE, value);
+        output.writeInt64(SAMPLE_TIMESTAMP, timestamp);
+    }
+
+    private void writeHistogramSeries(CodedOutputStream output, byte[] encodedLabels, int timeSeriesSize,
+                                      int histogramSize) throws IOException {
+        output.writeTag(WRITE_REQUEST_TIMESERIES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(timeSeriesSize);
+        output.writeRawBytes(encodedLabels);
+
+        output.writeTag(TIMESERIES_HISTOGRAMS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(histogramSize);
+        histogramEncoder.write(output);
+    }
+
+    /**
+     * Writes a 2.0 series with either a sample or, when {@code histogramSize} is not negative, the histogram
+     * prepared in {@link #histogramEncoder}.
+     */
+    private void writeV2Series(int shard, SeriesLabelCache.Entry series, double value,
+                               long timestamp, int histogramSize) throws IOException {
+        WriteRequestBuffer buffer = buffers[shard];
+        SymbolTable symbols = buffer.symbolTable();
+        int symbolCount = symbols.size();
+        String[] labels = series.symbols;
+        if (labelRefs.length < labels.length) {
+            labelRefs = new int[labels.length << 1];
+        }
+        int refsSize = 0;
+        for (int i = 0; i < labels.length; i++) {
+            labelRefs[i] = symbols.ref(labels[i]);
+            refsSize += CodedOutputStream.computeUInt32SizeNoTag(labelRefs[i]);
+        }
+        int helpRef = symbols.ref(help);
+        int unitRef = symbols.ref(unit);
+        int metadataSize = CodedOutputStream.computeEnumSize(V2_METADATA_TYPE, metricType.getNumber())
+                + CodedOutputStream.computeUInt32Size(V2_METADATA_HELP_REF, helpRef)
+                + CodedOutputStream.computeUInt32Size(V2_METADATA_UNIT_REF, unitRef);
+
+        boolean histogram = histogramSize >= 0;
+        int pointSize = histogram ? histogramSize : sampleSize(value, timestamp);
+        int timeSeriesSize = fieldSize(refsSize) + fieldSize(pointSize) + fieldSize(metadataSize);
+        int size = fieldSize(timeSeriesSize);
+        for (int ref = buffer.isEmpty() ? 0 : symbolCount; ref < symbols.size(); ref++) {
+            size += CodedOutputStream.computeStringSize(V2_REQUEST_SYMBOLS, symbols.symbol(ref));
+        }
+        if (exceedsLimit(buffer, size)) {
+            flush(shard, symbolCount);
+            writeV2Series(shard, series, value, timestamp, histogramSize);
+            return;
+        }
+
+        CodedOutputStream output = buffer.output();
+        output.writeTag(V2_REQUEST_TIMESERIES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(timeSeriesSize);
+
+        output.writeTag(V2_TIMESERIES_LABELS_REFS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(refsSize);
+        for (int i = 0; i < labels.length; i++) {
+            output.writeUInt32NoTag(labelRefs[i]);
+        }
+
+        if (histogram) {
+            output.writeTag(V2_TIMESERIES_HISTOGRAMS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(pointSize);
+            histogramEncoder.write(output);
+        } else {
+            output.writeTag(V2_TIMESERIES_SAMPLES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(pointSize);
+            output.writeDouble(SAMPLE_VALUE, value);
+            output.writeInt64(SAMPLE_TIMESTAMP, timestamp);
+        }
+
+        output.writeTag(V2_TIMESERIES_METADATA, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(metadataSize);
+        output.writeEnum(V2_METADATA_TYPE, metricType.getNumber());
+        output.writeUInt32(V2_METADATA_HELP_REF, helpRef);
+        output.writeUInt32(V2_METADATA_UNIT_REF, unitRef);
+        seriesWritten(shard, buffer, size);
+    }
+
+    private static void writeSymbols(WriteRequestBuffer buffer, int symbolCount) throws IOException {
+        SymbolTable symbols = buffer.symbolTable();
+        CodedOutputStream output = buffer.output();
+        for (int ref = 0; ref < symbolCount; ref++) {
+            output.writeString(V2_REQUEST_SYMBOLS, symbols.symbol(ref));
+        }
+    }
+
+    static int labelSize(String name, String value) {
+        return fieldSize(labelMessageSize(name, value));
+    }
+
+    static void writeLabel(CodedOutputStream output, String name, String value) throws IOException {
+        output.writeTag(TIMESERIES_LABELS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(labelMessageSize(name, value));
+        output.writeString(LABEL_NAME, name);
+        output.writeString(LABEL_VALUE, value);
+    }
+
+    private static int labelMessageSize(String name, String value) {
+        return CodedOutputStream.computeStringSize(LABEL_NAME, name)
+                + CodedOutputStream.computeStringSize(LABEL_VALUE, value);
+    }
+
+    private static int sampleSize(double value, long timestamp) {
+        return CodedOutputStream.computeDoubleSize(SAMPLE_VALUE, value)
+                + CodedOutputStream.computeInt64Size(SAMPLE_TIMESTAMP, timestamp);
+    }
+
+    private static int fieldSize(int messageSize) {
+        return 1 + CodedOutputStream.computeUInt32SizeNoTag(messageSize) + messageSize;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public enum MetricType {
+        UNSPECIFIED(0),
+        COUNTER(1),
+        GAUGE(2),
+        HISTOGRAM(3),
+        GAUGE_HISTOGRAM(4),
+        SUMMARY(5),
+        INFO(6),
+        STATESET(7);
+
+        private final int number;
+    }
+}
@@ -0,0 +1,334 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.cumulative.CumulativeCounter;
+import io.micrometer.core.instrument.cumulative.CumulativeDistributionSummary;
+import io.micrometer.core.instrument.cumulative.CumulativeFunctionCounter;
+import io.micrometer.core.instrument.cumulative.CumulativeFunctionTimer;
+import io.micrometer.core.instrument.cumulative.CumulativeTimer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.internal.DefaultGauge;
+import io.micrometer.core.instrument.internal.DefaultLongTaskTimer;
+import io.micrometer.core.instrument.internal.DefaultMeter;
+import io.micrometer.core.instrument.push.PushMeterRegistry;
+import io.micrometer.core.instrument.push.PushRegistryConfig;
+import io.micrometer.prometheusmetrics.PrometheusNamingConvention;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import io.prometheus.metrics.model.snapshots.PrometheusNaming;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+import ru.mirea.prometheus.exporter.RemoteWriteEncoder.MetricType;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Micrometer registry that streams its meters straight into a {@link RemoteWriteEncoder} every step, as an
+ * alternative to {@link MetricExporter} scraping a {@code PrometheusMeterRegistry}. No Prometheus snapshots are
+ * built: every meter is read once per step and written as series, and only timers and distribution summaries
+ * take a Micrometer histogram snapshot. Meters whose name does not start with one of the included prefixes are
+ * denied by a meter filter, so they are never created here and cost nothing to record or export.
+ * <p>
+ * Series have the labels the Prometheus registry would give them and the names {@link MetricExporter} sends
+ * for it, which are canonical: the Prometheus name of the metric, so counters have no {@code _total} suffix
+ * although Micrometer's Prometheus naming convention appends one. Both modes therefore write the same series.
+ * Meters are cumulative, as with Prometheus. The names, labels and metadata of every meter are computed once and
+ * kept until it is removed. Relabeling and aggregation rules are not applied in this mode.
+ */
+@Slf4j
+public class RemoteWriteMeterRegistry extends PushMeterRegistry {
+
+    private static final String CONFIG_PREFIX = "remotewrite";
+    private static final Duration DEFAULT_STEP = Duration.ofSeconds(60);
+    private static final String EXPORTER_PREFIX = "exporter.";
+    private static final Duration CUMULATIVE_HISTOGRAM_EXPIRY = Duration.ofDays(1825);
+
+    private final Duration step;
+    private final RemoteWriteEncoder encoder;
+    private final Map<Meter.Id, StreamedMeter> streamedMeters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry sending every {@code step} (a minute by default) meters whose name starts with one of
+     * {@code includePrefixes} (all if empty) to the sink, along with the exporter's own meters. Publishing starts
+     * with {@link #start(java.util.concurrent.ThreadFactory)}. The delta heartbeat, label conflict policy and
+     * label cache size work as in {@link MetricExporter}.
+     */
+    @Builder
+    public RemoteWriteMeterRegistry(SystemInfo systemInfo, RemoteWriteSink remoteWriteSink, Duration step,
+                                    List<String> includePrefixes, Duration deltaHeartbeat,
+                                    LabelConflictPolicy labelConflictPolicy, Integer labelCacheMaxEntries,
+                                    Clock clock) {
+        super(config(step != null ? step : DEFAULT_STEP), clock != null ? clock : Clock.SYSTEM);
+        this.step = step != null ? step : DEFAULT_STEP;
+        SeriesLabelCache labelCache = new SeriesLabelCache(systemInfo,
+                labelCacheMaxEntries != null ? labelCacheMaxEntries : SeriesLabelCache.DEFAULT_MAX_ENTRIES,
+                labelConflictPolicy);
+        ChangedSampleFilter sampleFilter = deltaHeartbeat != null ? new ChangedSampleFilter(deltaHeartbeat) : null;
+        this.encoder = new RemoteWriteEncoder(labelCache, remoteWriteSink, sampleFilter);
+
+        config().namingConvention(new PrometheusNamingConvention());
+        if (includePrefixes != null && !includePrefixes.isEmpty()) {
+            List<String> prefixes = List.copyOf(includePrefixes);
+            config().meterFilter(MeterFilter.denyUnless(id -> id.getName().startsWith(EXPORTER_PREFIX)
+                    || prefixes.stream().anyMatch(id.getName()::startsWith)));
+        }
+        config().onMeterRemoved(meter -> streamedMeters.remove(meter.getId()));
+
+        labelCache.bindTo(this);
+        if (sampleFilter != null) {
+            sampleFilter.bindTo(this);
+        }
+        if (remoteWriteSink instanceof MeterBinder binder) {
+            binder.bindTo(this);
+        }
+    }
+
+    private static PushRegistryConfig config(Duration step) {
+        return new PushRegistryConfig() {
+            @Override
+            public String prefix() {
+                return CONFIG_PREFIX;
+            }
+
+            @Override
+            public String get(String key) {
+                return null;
+            }
+
+            @Override
+            public Duration step() {
+                return step;
+            }
+        };
+    }
+
+    /**
+     * Writes every meter with the timestamp of the current step and finishes the encoder cycle.
+     */
+    @Override
+    protected void publish() {
+        long stepMillis = step.toMillis();
+        long timestamp = clock.wallTime() / stepMillis * stepMillis;
+        for (Meter meter : getMeters()) {
+            StreamedMeter streamed = streamedMeters.computeIfAbsent(meter.getId(), StreamedMeter::new);
+            try {
+                meter.use(
+                        gauge -> streamed.gauge(gauge.value(), timestamp),
+                        counter -> streamed.counter(counter.count(), timestamp),
+                        timer -> streamed.distribution(timer.takeSnapshot(), getBaseTimeUnit(), timestamp),
+                        summary -> streamed.distribution(summary.takeSnapshot(), null, timestamp),
+                        longTaskTimer -> streamed.longTaskTimer(longTaskTimer, timestamp),
+                        timeGauge -> streamed.gauge(timeGauge.value(getBaseTimeUnit()), timestamp),
+                        functionCounter -> streamed.counter(functionCounter.count(), timestamp),
+                        functionTimer -> streamed.functionTimer(functionTimer, timestamp),
+                        other -> streamed.measurements(other.measure(), timestamp));
+            } catch (RuntimeException e) {
+                log.warn("Unable to export meter {}", meter.getId().getName(), e);
+            }
+        }
+        encoder.finishCycle();
+    }
+
+    @Override
+    protected TimeUnit getBaseTimeUnit() {
+        return TimeUnit.SECONDS;
+    }
+
+    @Override
+    protected DistributionStatisticConfig defaultHistogramConfig() {
+        return DistributionStatisticConfig.builder()
+                .expiry(step)
+                .build()
+                .merge(DistributionStatisticConfig.DEFAULT);
+    }
+
+    @Override
+    protected <T> Gauge newGauge(Meter.Id id, T obj, ToDoubleFunction<T> valueFunction) {
+        return new DefaultGauge<>(id, obj, valueFunction);
+    }
+
+    @Override
+    protected Counter newCounter(Meter.Id id) {
+        return new CumulativeCounter(id);
+    }
+
+    @Override
+    protected Timer newTimer(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig,
+                             PauseDetector pauseDetector) {
+        return new CumulativeTimer(id, clock, cumulativeHistogram(distributionStatisticConfig), pauseDetector,
+                getBaseTimeUnit(), true);
+    }
+
+    @Override
+    protected DistributionSummary newDistributionSummary(Meter.Id id,
+                                                         DistributionStatisticConfig distributionStatisticConfig,
+                                                         double scale) {
+        return new CumulativeDistributionSummary(id, clock, cumulativeHistogram(distributionStatisticConfig), scale,
+                true);
+    }
+
+    /**
+     * Makes the buckets of a histogram count every value since the meter was created instead of those of the
+     * last window, as the Prometheus registry does, and adds a {@code +Inf} bucket, so that bucket series only
+     * grow and {@code +Inf} and {@code _count} agree with them. Configurations without buckets keep the
+     * step-wide window for their client-side percentiles.
+     */
+    private static DistributionStatisticConfig cumulativeHistogram(DistributionStatisticConfig config) {
+        if (!config.isPublishingHistogram()) {
+            return config;
+        }
+        double[] boundaries = config.getServiceLevelObjectiveBoundaries();
+        double[] withInfinity = boundaries != null ? Arrays.copyOf(boundaries, boundaries.length + 1) : new double[1];
+        withInfinity[withInfinity.length - 1] = Double.POSITIVE_INFINITY;
+        return DistributionStatisticConfig.builder()
+                .expiry(CUMULATIVE_HISTOGRAM_EXPIRY)
+                .bufferLength(1)
+                .serviceLevelObjectives(withInfinity)
+                .build()
+                .merge(config);
+    }
+
+    @Override
+    protected LongTaskTimer newLongTaskTimer(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig) {
+        return new DefaultLongTaskTimer(id, clock, getBaseTimeUnit(), distributionStatisticConfig, true);
+    }
+
+    @Override
+    protected Meter newMeter(Meter.Id id, Meter.Type type, Iterable<Measurement> measurements) {
+        return new DefaultMeter(id, type, measurements);
+    }
+
+    @Override
+    protected <T> FunctionTimer newFunctionTimer(Meter.Id id, T obj, ToLongFunction<T> countFunction,
+                                                 ToDoubleFunction<T> totalTimeFunction,
+                                                 TimeUnit totalTimeFunctionUnit) {
+        return new CumulativeFunctionTimer<>(id, obj, countFunction, totalTimeFunction, totalTimeFunctionUnit,
+                getBaseTimeUnit());
+    }
+
+    @Override
+    protected <T> FunctionCounter newFunctionCounter(Meter.Id id, T obj, ToDoubleFunction<T> countFunction) {
+        return new CumulativeFunctionCounter<>(id, obj, countFunction);
+    }
+
+    /**
+     * Series names, labels and metadata of one meter.
+     */
+    private final class StreamedMeter {
+
+        private final String name;
+        private final Labels labels;
+        private final MetricMetadata metadata;
+        private final String sumName;
+        private final String countName;
+        private final String bucketName;
+        private final String maxName;
+        private final MetricMetadata maxMetadata;
+
+        private StreamedMeter(Meter.Id id) {
+            this.name = PrometheusNaming.sanitizeMetricName(id.getConventionName(config().namingConvention()));
+            Labels.Builder builder = Labels.builder();
+            for (Tag tag : getConventionTags(id)) {
+                builder.label(tag.getKey(), tag.getValue());
+            }
+            this.labels = builder.build();
+            this.metadata = new MetricMetadata(name, id.getDescription());
+            this.sumName = name + "_sum";
+            this.countName = name + "_count";
+            this.bucketName = name + "_bucket";
+            this.maxName = name + "_max";
+            this.maxMetadata = new MetricMetadata(maxName, id.getDescription());
+        }
+
+        private void gauge(double value, long timestamp) {
+            encoder.beginMetric(metadata, MetricType.GAUGE);
+            encoder.series(name, labels, value, timestamp);
+        }
+
+        private void counter(double value, long timestamp) {
+            encoder.beginMetric(metadata, MetricType.COUNTER);
+            encoder.series(name, labels, value, timestamp);
+        }
+
+        /**
+         * Writes a timer or distribution summary as a histogram if it has buckets and as a summary otherwise,
+         * followed by its maximum as a gauge, like the Prometheus registry does. The count of a histogram is
+         * taken from its {@code +Inf} bucket, so it never disagrees with the buckets.
+         */
+        private void distribution(HistogramSnapshot snapshot, TimeUnit unit, long timestamp) {
+            CountAtBucket[] buckets = snapshot.histogramCounts();
+            double count = snapshot.count();
+            encoder.beginMetric(metadata, buckets.length > 0 ? MetricType.HISTOGRAM : MetricType.SUMMARY);
+            if (buckets.length > 0) {
+                for (CountAtBucket bucket : buckets) {
+                    double upperBound = unit != null ? bucket.bucket(unit) : bucket.bucket();
+                    encoder.series(bucketName, labels, "le", upperBound, bucket.count(), timestamp);
+                }
+                count = buckets[buckets.length - 1].count();
+            } else {
+                for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                    double value = unit != null ? percentile.value(unit) : percentile.value();
+                    encoder.series(name, labels, "quantile", percentile.percentile(), value, timestamp);
+                }
+            }
+            encoder.series(countName, labels, count, timestamp);
+            encoder.series(sumName, labels, unit != null ? snapshot.total(unit) : snapshot.total(), timestamp);
+            encoder.beginMetric(maxMetadata, MetricType.GAUGE);
+            encoder.series(maxName, labels, unit != null ? snapshot.max(unit) : snapshot.max(), timestamp);
+        }
+
+        private void longTaskTimer(LongTaskTimer longTaskTimer, long timestamp) {
+            encoder.beginMetric(metadata, MetricType.GAUGE);
+            encoder.series(name + "_active_count", labels, longTaskTimer.activeTasks(), timestamp);
+            encoder.series(name + "_duration_sum", labels, longTaskTimer.duration(getBaseTimeUnit()), timestamp);
+            encoder.series(maxName, labels, longTaskTimer.max(getBaseTimeUnit()), timestamp);
+        }
+
+        private void functionTimer(FunctionTimer functionTimer, long timestamp) {
+            encoder.beginMetric(metadata, MetricType.SUMMARY);
+            encoder.series(countName, labels, functionTimer.count(), timestamp);
+            encoder.series(sumName, labels, functionTimer.totalTime(getBaseTimeUnit()), timestamp);
+        }
+
+        /**
+         * Writes the measurements of a custom meter, one series per statistic.
+         */
+        private void measurements(Iterable<Measurement> measurements, long timestamp) {
+            encoder.beginMetric(metadata, MetricType.UNSPECIFIED);
+            for (Measurement measurement : measurements) {
+                String seriesName = switch (measurement.getStatistic()) {
+                    case COUNT -> countName;
+                    case TOTAL, TOTAL_TIME -> sumName;
+                    case MAX -> maxName;
+                    case ACTIVE_TASKS -> name + "_active_count";
+                    case DURATION -> name + "_duration_sum";
+                    default -> name;
+                };
+                encoder.series(seriesName, labels, measurement.getValue(), timestamp);
+            }
+        }
+    }
+}
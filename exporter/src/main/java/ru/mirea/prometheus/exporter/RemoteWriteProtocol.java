@@ -0,0 +1,15 @@
+package ru.mirea.prometheus.exporter;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum RemoteWriteProtocol {
+
+    V1("application/x-protobuf", "0.1.0"),
+    V2("application/x-protobuf;proto=io.prometheus.write.v2.Request", "2.0.0");
+
+    private final String contentType;
+    private final String version;
+}
@@ -0,0 +1,357 @@
+package ru.mirea.prometheus.exporter;
+
+import com.google.protobuf.WireFormat;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accepts remote-write 1.0 requests from local exporters and re-batches their series into requests sized by the
+ * upstream sink, so that many processes share a few large requests and connections instead of sending their
+ * own. Series are copied as encoded, without decoding labels or samples, and routed to shards by the
+ * {@link SeriesHash} of their label bytes, so the samples of one series stay in order.
+ * <p>
+ * A request is parsed completely before any of its series is appended, so a malformed request is rejected as a
+ * whole. Buffered series are flushed every flush interval, or earlier when a request fills up. Only 1.0 is
+ * accepted: its series are self-contained, while 2.0 series reference the symbol table of their request.
+ */
+@Slf4j
+public class RemoteWriteRelay implements MeterBinder, AutoCloseable {
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 64 * 1024 * 1024;
+
+    private static final int WRITE_REQUEST_TIMESERIES_TAG = tag(1);
+    private static final int TIMESERIES_LABELS_TAG = tag(1);
+    private static final int TIMESERIES_SAMPLES_TAG = tag(2);
+    private static final int TIMESERIES_HISTOGRAMS_TAG = tag(4);
+
+    private final RemoteWriteEncoder encoder;
+    private final int maxRequestBytes;
+    private final CompressionCodec snappy = new SnappyCodec();
+    private final CompressionCodec zstd = new ZstdCodec();
+    private final DirectBufferPool bufferPool = new DirectBufferPool();
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder acceptedRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder relayedSeries = new LongAdder();
+    private final LongAdder relayedSamples = new LongAdder();
+
+    /**
+     * Creates a relay forwarding to the given sink, which must ask for {@link RemoteWriteProtocol#V1}. Requests
+     * larger than {@code maxRequestBytes} uncompressed ({@value #DEFAULT_MAX_REQUEST_BYTES} by default) are
+     * rejected. Buffered series are flushed every {@code flushInterval} ({@link #DEFAULT_FLUSH_INTERVAL} by
+     * default); a zero interval leaves flushing to {@link #flush()}.
+     */
+    @Builder
+    public RemoteWriteRelay(RemoteWriteSink remoteWriteSink, Integer maxRequestBytes, Duration flushInterval) {
+        if (remoteWriteSink.protocol() != RemoteWriteProtocol.V1) {
+            throw new IllegalArgumentException("Relay can only forward remote-write 1.0 requests");
+        }
+        if (maxRequestBytes != null && maxRequestBytes <= 0) {
+            throw new IllegalArgumentException("MaxRequestBytes must be greater than 0");
+        }
+        if (flushInterval != null && flushInterval.isNegative()) {
+            throw new IllegalArgumentException("FlushInterval must not be negative");
+        }
+        // relayed series arrive with all their labels, so the label cache of the encoder stays empty
+        this.encoder = new RemoteWriteEncoder(new SeriesLabelCache(new SystemInfo("", "", "")), remoteWriteSink, null);
+        this.maxRequestBytes = maxRequestBytes != null ? maxRequestBytes : DEFAULT_MAX_REQUEST_BYTES;
+        long flushMillis = (flushInterval != null ? flushInterval : DEFAULT_FLUSH_INTERVAL).toMillis();
+        if (flushMillis > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "remote-write-relay-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("exporter.relay.requests", acceptedRequests, LongAdder::sum)
+                .tag("result", "accepted")
+                .register(registry);
+        FunctionCounter.builder("exporter.relay.requests", rejectedRequests, LongAdder::sum)
+                .tag("result", "rejected")
+                .register(registry);
+        FunctionCounter.builder("exporter.relay.series", relayedSeries, LongAdder::sum)
+                .description("Series received and re-batched")
+                .register(registry);
+        FunctionCounter.builder("exporter.relay.samples", relayedSamples, LongAdder::sum)
+                .description("Samples and histograms received and re-batched")
+                .register(registry);
+    }
+
+    /**
+     * Returns whether requests with the given {@code Content-Encoding} can be decompressed.
+     */
+    public boolean supportsEncoding(String contentEncoding) {
+        return codec(contentEncoding) != null;
+    }
+
+    /**
+     * Reads a compressed request body of {@code contentLength} bytes and relays its series.
+     *
+     * @throws IOException if the body cannot be read, decompressed or parsed
+     */
+    public void accept(InputStream body, int contentLength, String contentEncoding) throws IOException {
+        if (contentLength < 0 || contentLength > maxRequestBytes) {
+            rejectedRequests.increment();
+            throw new IOException("Unsupported request body length " + contentLength);
+        }
+        ByteBuffer compressed = bufferPool.acquire(contentLength);
+        try {
+            byte[] chunk = new byte[Math.min(contentLength, 8 * 1024)];
+            while (compressed.position() < contentLength) {
+                int read = body.read(chunk, 0, Math.min(chunk.length, contentLength - compressed.position()));
+                if (read < 0) {
+                    rejectedRequests.increment();
+                    throw new IOException("Request body ended after " + compressed.position() + " bytes");
+                }
+                compressed.put(chunk, 0, read);
+            }
+            accept(compressed.flip(), contentEncoding);
+        } finally {
+            bufferPool.release(compressed);
+        }
+    }
+
+    /**
+     * Decompresses the remaining bytes of a direct buffer holding a request body and relays its series.
+     *
+     * @throws IOException if the body cannot be decompressed or parsed
+     */
+    public void accept(ByteBuffer compressed, String contentEncoding) throws IOException {
+        CompressionCodec codec = codec(contentEncoding);
+        if (codec == null) {
+            rejectedRequests.increment();
+            throw new IOException("Unsupported content encoding " + contentEncoding);
+        }
+        ByteBuffer request = null;
+        try {
+            int length = codec.uncompressedLength(compressed);
+            if (length > maxRequestBytes) {
+                throw new IOException("Request of " + length + " bytes exceeds " + maxRequestBytes + " bytes");
+            }
+            request = bufferPool.acquire(length);
+            int decompressed = codec.decompress(compressed, request);
+            request.limit(decompressed).position(0);
+            relay(request);
+        } catch (IOException e) {
+            rejectedRequests.increment();
+            throw e;
+        } finally {
+            if (request != null) {
+                bufferPool.release(request);
+            }
+        }
+        acceptedRequests.increment();
+    }
+
+    /**
+     * Hands all buffered series to the sink and picks up changed settings of the sink.
+     */
+    public void flush() {
+        synchronized (encoder) {
+            encoder.finishCycle();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Unable to flush relayed series", e);
+        }
+    }
+
+    private static int tag(int fieldNumber) {
+        return fieldNumber << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    private CompressionCodec codec(String contentEncoding) {
+        if (contentEncoding == null || contentEncoding.isEmpty() || contentEncoding.equals("snappy")) {
+            return snappy;
+        }
+        return contentEncoding.equals("zstd") ? zstd : null;
+    }
+
+    private void relay(ByteBuffer request) throws IOException {
+        Reader reader = new Reader(request);
+        SeriesPositions positions = new SeriesPositions();
+        long samples = 0;
+        while (reader.hasRemaining()) {
+            int tag = reader.varint();
+            if (tag == WRITE_REQUEST_TIMESERIES_TAG) {
+                int end = reader.lengthDelimitedEnd();
+                int offset = reader.position;
+                int labelsStart = -1;
+                int labelsEnd = -1;
+                // contiguous labels, as every exporter writes them, hash to the id the exporter itself uses
+                long scatteredHash = 0;
+                while (reader.position < end) {
+                    int fieldStart = reader.position;
+                    int field = reader.varint();
+                    if (field == TIMESERIES_LABELS_TAG) {
+                        int labelEnd = reader.lengthDelimitedEnd();
+                        if (labelsStart < 0) {
+                            labelsStart = fieldStart;
+                        } else if (labelsEnd != fieldStart) {
+                            scatteredHash = scatteredHash * 31 + SeriesHash.hash(request, labelsStart,
+                                    labelsEnd - labelsStart);
+                            labelsStart = fieldStart;
+                        }
+                        labelsEnd = labelEnd;
+                        reader.position = labelEnd;
+                    } else {
+                        if (field == TIMESERIES_SAMPLES_TAG || field == TIMESERIES_HISTOGRAMS_TAG) {
+                            samples++;
+                        }
+                        reader.skip(field, end);
+                    }
+                }
+                if (reader.position != end) {
+                    throw new IOException("Malformed time series at offset " + offset);
+                }
+                long hash = labelsStart < 0 ? 0 : SeriesHash.hash(request, labelsStart, labelsEnd - labelsStart);
+                positions.add(offset, end - offset, Long.hashCode(scatteredHash * 31 + hash));
+            } else {
+                reader.skip(tag, request.limit());
+            }
+        }
+        synchronized (encoder) {
+            for (int i = 0; i < positions.size; i++) {
+                encoder.encodedSeries(request, positions.offset(i), positions.length(i), positions.hash(i));
+            }
+        }
+        relayedSeries.add(positions.size);
+        relayedSamples.add(samples);
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Reads protobuf wire format from a buffer with absolute gets.
+     */
+    private static final class Reader {
+
+        private final ByteBuffer buffer;
+        private int position;
+
+        private Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.position = buffer.position();
+        }
+
+        private boolean hasRemaining() {
+            return position < buffer.limit();
+        }
+
+        private int varint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= buffer.limit()) {
+                    throw new IOException("Truncated varint at offset " + position);
+                }
+                byte b = buffer.get(position++);
+                if (shift < 32) {
+                    result |= (b & 0x7F) << shift;
+                }
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint at offset " + position);
+        }
+
+        /**
+         * Reads the length of a length-delimited field and returns where its value ends.
+         */
+        private int lengthDelimitedEnd() throws IOException {
+            int length = varint();
+            if (length < 0 || length > buffer.limit() - position) {
+                throw new IOException("Field length " + length + " exceeds the request at offset " + position);
+            }
+            return position + length;
+        }
+
+        private void skip(int tag, int limit) throws IOException {
+            if (tag >>> 3 == 0) {
+                throw new IOException("Invalid field number at offset " + position);
+            }
+            int end = switch (tag & 7) {
+                case 0 -> {
+                    varint();
+                    yield position;
+                }
+                case 1 -> position + 8;
+                case 2 -> lengthDelimitedEnd();
+                case 5 -> position + 4;
+                default -> throw new IOException("Unsupported wire type " + (tag & 7) + " at offset " + position);
+            };
+            if (end > limit) {
+                throw new IOException("Field exceeds its message at offset " + position);
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * Offset, length and label hash of the series of one request, kept in a flat array.
+     */
+    private static final class SeriesPositions {
+
+        private int[] values = new int[3 * 64];
+        private int size;
+
+        private void add(int offset, int length, int hash) {
+            if (size * 3 == values.length) {
+                values = Arrays.copyOf(values, values.length << 1);
+            }
+            values[size * 3] = offset;
+            values[size * 3 + 1] = length;
+            values[size * 3 + 2] = hash;
+            size++;
+        }
+
+        private int offset(int index) {
+            return values[index * 3];
+        }
+
+        private int length(int index) {
+            return values[index * 3 + 1];
+        }
+
+        private int hash(int index) {
+            return values[index * 3 + 2];
+        }
+    }
+}
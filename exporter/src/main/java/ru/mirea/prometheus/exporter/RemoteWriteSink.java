@@ -0,0 +1,50 @@
+package ru.mirea.prometheus.exporter;
+
+/**
+ * Receives encoded requests from a {@link RemoteWriteEncoder}. Series are routed to one of {@link #shards()}
+ * buffers by their label hash, so every series always ends up in the same shard.
+ */
+@FunctionalInterface
+public interface RemoteWriteSink {
+
+    int DEFAULT_MAX_REQUEST_BYTES = 1024 * 1024;
+
+    void write(int shard, WriteRequestBuffer writeRequest);
+
+    /**
+     * Number of shards the encoder should route series to. Read by the encoder between export cycles only.
+     */
+    default int shards() {
+        return 1;
+    }
+
+    /**
+     * Protocol version the encoder should produce. Read by the encoder between export cycles only.
+     */
+    default RemoteWriteProtocol protocol() {
+        return RemoteWriteProtocol.V1;
+    }
+
+    /**
+     * Histogram encodings the receiver accepts. Read by the encoder between export cycles only.
+     */
+    default HistogramFormat histogramFormat() {
+        return HistogramFormat.CLASSIC;
+    }
+
+    /**
+     * Budget for the uncompressed size of a request. A single series larger than that is still sent on its own.
+     * Read by the encoder between export cycles only.
+     */
+    default int maxRequestBytes() {
+        return DEFAULT_MAX_REQUEST_BYTES;
+    }
+
+    /**
+     * Cap on the number of series per request, unlimited by default. Read by the encoder between export cycles
+     * only.
+     */
+    default int maxSeriesPerRequest() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.mirea.prometheus.exporter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Re-encodes 2.0 requests as 1.0 ones for receivers that turn out not to support 2.0, so that requests encoded
+ * before the client fell back are still delivered. Label references are resolved into labels, samples are copied
+ * and native histograms are carried over field by field, since both protocols number them the same way. Metadata
+ * has no place in a 1.0 series and is dropped.
+ */
+final class RemoteWriteTranscoder {
+
+    private RemoteWriteTranscoder() {
+    }
+
+    /**
+     * Returns the encoded 1.0 {@code WriteRequest} holding the series of the remaining bytes of an uncompressed
+     * 2.0 request.
+     */
+    static byte[] toV1(ByteBuffer uncompressed) throws IOException {
+        RemoteWriteV2Request.Request request = RemoteWriteV2Request.Request.parseFrom(uncompressed);
+        RemoteWriteRequest.WriteRequest.Builder writeRequest = RemoteWriteRequest.WriteRequest.newBuilder();
+        for (RemoteWriteV2Request.TimeSeries timeSeries : request.getTimeseriesList()) {
+            if (timeSeries.getSamplesCount() == 0 && timeSeries.getHistogramsCount() == 0) {
+                continue;
+            }
+            RemoteWriteRequest.TimeSeries.Builder series = writeRequest.addTimeseriesBuilder();
+            List<Integer> refs = timeSeries.getLabelsRefsList();
+            for (int i = 0; i + 1 < refs.size(); i += 2) {
+                series.addLabelsBuilder()
+                        .setName(request.getSymbols(refs.get(i)))
+                        .setValue(request.getSymbols(refs.get(i + 1)));
+            }
+            for (RemoteWriteV2Request.Sample sample : timeSeries.getSamplesList()) {
+                series.addSamplesBuilder()
+                        .setValue(sample.getValue())
+                        .setTimestamp(sample.getTimestamp());
+            }
+            for (RemoteWriteV2Request.Histogram histogram : timeSeries.getHistogramsList()) {
+                series.addHistograms(RemoteWriteRequest.Histogram.parseFrom(histogram.toByteString()));
+            }
+        }
+        return writeRequest.build().toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.mirea.prometheus.exporter;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed remote-write request is retried.
+ * <p>
+ * Network errors, 5xx and 429 responses are retried with capped exponential backoff and full jitter,
+ * so that replicas failing at the same moment do not retry in lockstep. A {@code Retry-After} header
+ * overrides the backoff. Other 4xx responses are never retried. Retries of a single request stop once
+ * its time budget is spent, which should not exceed the export interval.
+ */
+@Getter
+public class RetryPolicy {
+
+    public static final Duration DEFAULT_MIN_BACKOFF = Duration.ofMillis(100);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_TIME_BUDGET = Duration.ofSeconds(60);
+
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final Duration timeBudget;
+
+    public RetryPolicy(Duration timeBudget) {
+        this(DEFAULT_MIN_BACKOFF, DEFAULT_MAX_BACKOFF, timeBudget);
+    }
+
+    public RetryPolicy(Duration minBackoff, Duration maxBackoff, Duration timeBudget) {
+        if (minBackoff.isNegative() || minBackoff.isZero() || maxBackoff.compareTo(minBackoff) < 0) {
+            throw new IllegalArgumentException("Backoff must satisfy 0 < minBackoff <= maxBackoff");
+        }
+        if (timeBudget.isNegative()) {
+            throw new IllegalArgumentException("TimeBudget must not be negative");
+        }
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.timeBudget = timeBudget;
+    }
+
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(DEFAULT_TIME_BUDGET);
+    }
+
+    public boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    /**
+     * Delay before retry number {@code attempt} (starting at 0), honoring the {@code Retry-After} header when present.
+     */
+    public long delayMillis(int attempt, Optional<String> retryAfter) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long retryAfterMillis = retryAfter.map(RetryPolicy::parseRetryAfterMillis).orElse(-1L);
+        if (retryAfterMillis >= 0) {
+            return retryAfterMillis + random.nextLong(minBackoff.toMillis() + 1);
+        }
+        long backoff = Math.min(maxBackoff.toMillis(), minBackoff.toMillis() << Math.min(attempt, 30));
+        return random.nextLong(minBackoff.toMillis(), backoff + 1);
+    }
+
+    private static long parseRetryAfterMillis(String value) {
+        String trimmed = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(trimmed) * 1000);
+        } catch (NumberFormatException ignored) {
+            // not delta-seconds, try HTTP-date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.mirea.prometheus.exporter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 64-bit XXH64 hash with seed 0, used as the identity of a series. Over the canonical encoded label block of
+ * a series it is stable across processes and restarts, so it can key sharding, per-series state and caches.
+ */
+public final class SeriesHash {
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    private SeriesHash() {
+    }
+
+    public static long hash(byte[] bytes) {
+        return hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Hashes {@code length} bytes of the buffer starting at {@code offset}, without moving its position.
+     */
+    public static long hash(ByteBuffer buffer, int offset, int length) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        int end = offset + length;
+        int index = offset;
+        long hash;
+        if (length >= 32) {
+            long v1 = PRIME_1 + PRIME_2;
+            long v2 = PRIME_2;
+            long v3 = 0;
+            long v4 = -PRIME_1;
+            for (int limit = end - 32; index <= limit; index += 32) {
+                v1 = round(v1, readLong(buffer, index, swap));
+                v2 = round(v2, readLong(buffer, index + 8, swap));
+                v3 = round(v3, readLong(buffer, index + 16, swap));
+                v4 = round(v4, readLong(buffer, index + 24, swap));
+            }
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                    + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME_5;
+        }
+        hash += length;
+        for (; index <= end - 8; index += 8) {
+            hash ^= round(0, readLong(buffer, index, swap));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        if (index <= end - 4) {
+            int value = buffer.getInt(index);
+            hash ^= ((swap ? Integer.reverseBytes(value) : value) & 0xFFFFFFFFL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            index += 4;
+        }
+        for (; index < end; index++) {
+            hash ^= (buffer.get(index) & 0xFFL) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long readLong(ByteBuffer buffer, int index, boolean swap) {
+        long value = buffer.getLong(index);
+        return swap ? Long.reverseBytes(value) : value;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME_1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME_1 + PRIME_4;
+    }
+}
@@ -0,0 +1,327 @@
+package ru.mirea.prometheus.exporter;
+
+import com.google.protobuf.CodedOutputStream;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.prometheus.metrics.model.snapshots.Labels;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps the pre-serialized, name-sorted label block of every exported series between export cycles,
+ * so that an unchanged series costs one hash lookup instead of re-encoding all of its label strings.
+ * <p>
+ * Label sets are canonical: sorted by name with unique names, data point labels that collide with the labels
+ * added by the exporter being resolved by a {@link LabelConflictPolicy}. Every series is identified by the
+ * {@link SeriesHash} of its encoded label block.
+ * <p>
+ * Entries for series that were not seen during a cycle are evicted by {@link #sweep()}. It is not thread-safe;
+ * parallel encoders use one cache each.
+ * <p>
+ * The cache is bounded. Once it is full, new series are encoded without being cached until a sweep frees room,
+ * rather than evicting cached ones: series are looked up in the same order every cycle, so an evicting cache
+ * smaller than the series count would miss on every lookup and cost more than having no cache. Past the bound,
+ * the series that do not fit cost what they would without a cache. Misses growing by roughly the series count
+ * beyond the bound every cycle show that the bound is too small.
+ */
+public class SeriesLabelCache implements MeterBinder {
+
+    public static final int DEFAULT_MAX_ENTRIES = 200_000;
+
+    private static final String EXPORTED_PREFIX = "exported_";
+
+    private final String[][] constantLabels;
+    private final LabelConflictPolicy conflictPolicy;
+    private final Map<SeriesKey, Entry> entries = new HashMap<>();
+    private final int maxEntries;
+    private final SeriesKey lookupKey = new SeriesKey();
+
+    private int cycle;
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long evictions;
+    private volatile long conflicts;
+
+    public SeriesLabelCache(SystemInfo systemInfo) {
+        this(systemInfo, DEFAULT_MAX_ENTRIES);
+    }
+
+    public SeriesLabelCache(SystemInfo systemInfo, int maxEntries) {
+        this(systemInfo, maxEntries, null);
+    }
+
+    /**
+     * Creates a cache resolving label name conflicts with the given policy ({@link LabelConflictPolicy#RENAME}
+     * by default).
+     */
+    public SeriesLabelCache(SystemInfo systemInfo, int maxEntries, LabelConflictPolicy conflictPolicy) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("MaxEntries must be greater than 0");
+        }
+        this.constantLabels = constantLabels(systemInfo);
+        this.conflictPolicy = conflictPolicy != null ? conflictPolicy : LabelConflictPolicy.RENAME;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindTo(registry, List.of(this));
+    }
+
+    /**
+     * Registers the cache meters once for a group of caches used side by side, reporting their sums.
+     */
+    static void bindTo(MeterRegistry registry, List<SeriesLabelCache> caches) {
+        FunctionCounter.builder("exporter.label.cache.requests", caches, all -> sum(all, cache -> cache.hits))
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("exporter.label.cache.requests", caches, all -> sum(all, cache -> cache.misses))
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("exporter.label.cache.evictions", caches, all -> sum(all, cache -> cache.evictions))
+                .register(registry);
+        Gauge.builder("exporter.label.cache.size", caches, all -> sum(all, cache -> cache.entries.size()))
+                .register(registry);
+        FunctionCounter.builder("exporter.label.conflicts", caches, all -> sum(all, cache -> cache.conflicts))
+                .description("Data point labels renamed, dropped or honored because their name was taken")
+                .register(registry);
+    }
+
+    private static double sum(List<SeriesLabelCache> caches, ToLongFunction<SeriesLabelCache> value) {
+        long sum = 0;
+        for (SeriesLabelCache cache : caches) {
+            sum += value.applyAsLong(cache);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the encoded {@code TimeSeries.labels} entries for the series, including the constant
+     * {@link SystemInfo} labels and {@code __name__}. A numeric extra label value is only converted to a string
+     * when the series is not cached yet.
+     */
+    Entry labels(String name, Labels labels, String extraLabelName, String extraLabelValue,
+                 double extraLabelNumericValue) {
+        lookupKey.set(name, labels, extraLabelName, extraLabelValue, extraLabelNumericValue);
+        Entry entry = entries.get(lookupKey);
+        if (entry != null) {
+            hits++;
+            entry.cycle = cycle;
+            return entry;
+        }
+        misses++;
+        if (extraLabelName != null && extraLabelValue == null) {
+            extraLabelValue = String.valueOf(extraLabelNumericValue);
+        }
+        entry = newEntry(name, labels, extraLabelName, extraLabelValue);
+        if (entries.size() < maxEntries) {
+            entries.put(lookupKey.copy(), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Builds the canonical label set of a series, encodes and hashes it.
+     */
+    Entry newEntry(String name, Labels labels, String extraLabelName, String extraLabelValue) {
+        String[] sorted = canonicalLabels(name, labels, extraLabelName, extraLabelValue);
+        byte[] encoded = encode(sorted);
+        return new Entry(encoded, sorted, SeriesHash.hash(encoded), cycle);
+    }
+
+    /**
+     * Evicts series that were not requested since the previous sweep and starts a new cycle.
+     */
+    void sweep() {
+        int current = cycle;
+        int sizeBefore = entries.size();
+        entries.values().removeIf(entry -> entry.cycle != current);
+        evictions += sizeBefore - entries.size();
+        cycle++;
+    }
+
+    /**
+     * Returns the label names and values of a series, interleaved and sorted by name. The labels added here
+     * come first and are looked up linearly, as there are only a few of them; the nearly sorted result is then
+     * put in order with an insertion sort, which costs little more than a pass for sorted data point labels.
+     */
+    private String[] canonicalLabels(String name, Labels labels, String extraLabelName, String extraLabelValue) {
+        int size = constantLabels.length + 1 + (extraLabelName != null ? 1 : 0) + (labels != null ? labels.size() : 0);
+        String[] all = new String[size * 2];
+        int count = 0;
+        for (String[] label : constantLabels) {
+            all[count++] = label[0];
+            all[count++] = label[1];
+        }
+        all[count++] = "__name__";
+        all[count++] = name;
+        if (extraLabelName != null) {
+            all[count++] = extraLabelName;
+            all[count++] = extraLabelValue;
+        }
+        int reserved = count;
+        if (labels != null) {
+            for (int i = 0; i < labels.size(); i++) {
+                String labelName = labels.getName(i);
+                int taken = indexOf(all, reserved, labelName);
+                if (taken < 0) {
+                    all[count++] = labelName;
+                    all[count++] = labels.getValue(i);
+                    continue;
+                }
+                conflicts++;
+                if (conflictPolicy == LabelConflictPolicy.HONOR && taken < constantLabels.length * 2) {
+                    all[taken + 1] = labels.getValue(i);
+                } else if (conflictPolicy != LabelConflictPolicy.DROP) {
+                    String exportedName = EXPORTED_PREFIX + labelName;
+                    if (labels.get(exportedName) == null && indexOf(all, reserved, exportedName) < 0) {
+                        all[count++] = exportedName;
+                        all[count++] = labels.getValue(i);
+                    }
+                }
+            }
+        }
+        for (int i = 2; i < count; i += 2) {
+            String labelName = all[i];
+            String labelValue = all[i + 1];
+            int j = i - 2;
+            while (j >= 0 && all[j].compareTo(labelName) > 0) {
+                all[j + 2] = all[j];
+                all[j + 3] = all[j + 1];
+                j -= 2;
+            }
+            all[j + 2] = labelName;
+            all[j + 3] = labelValue;
+        }
+        return count == all.length ? all : Arrays.copyOf(all, count);
+    }
+
+    private static int indexOf(String[] labels, int end, String name) {
+        for (int i = 0; i < end; i += 2) {
+            if (labels[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] encode(String[] labels) {
+        int size = 0;
+        for (int i = 0; i < labels.length; i += 2) {
+            size += RemoteWriteEncoder.labelSize(labels[i], labels[i + 1]);
+        }
+        byte[] encoded = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+        try {
+            for (int i = 0; i < labels.length; i += 2) {
+                RemoteWriteEncoder.writeLabel(output, labels[i], labels[i + 1]);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return encoded;
+    }
+
+    private static String[][] constantLabels(SystemInfo systemInfo) {
+        List<String[]> labels = new ArrayList<>();
+        if (systemInfo.getInstance() != null) {
+            labels.add(new String[]{"instance", systemInfo.getInstance()});
+        }
+        labels.add(new String[]{"group", systemInfo.getGroup()});
+        labels.add(new String[]{"system", systemInfo.getSystem()});
+        labels.add(new String[]{"env", systemInfo.getEnv()});
+        return labels.toArray(new String[0][]);
+    }
+
+    static final class Entry {
+        /**
+         * Encoded {@code TimeSeries.labels} entries of the 1.0 protocol.
+         */
+        final byte[] labels;
+        /**
+         * Sorted label names and values, interleaved, for the symbol table of the 2.0 protocol.
+         */
+        final String[] symbols;
+        /**
+         * {@link SeriesHash} of {@link #labels}.
+         */
+        final long id;
+        final int hash;
+        private int cycle;
+
+        private Entry(byte[] labels, String[] symbols, long id, int cycle) {
+            this.labels = labels;
+            this.symbols = symbols;
+            this.id = id;
+            this.hash = Long.hashCode(id);
+            this.cycle = cycle;
+        }
+    }
+
+    private static final class SeriesKey {
+        private String name;
+        private Labels labels;
+        private String extraLabelName;
+        private String extraLabelValue;
+        private long extraLabelNumericBits;
+        private int hash;
+
+        private void set(String name, Labels labels, String extraLabelName, String extraLabelValue,
+                         double extraLabelNumericValue) {
+            this.name = name;
+            this.labels = labels;
+            this.extraLabelName = extraLabelName;
+            this.extraLabelValue = extraLabelValue;
+            this.extraLabelNumericBits = Double.doubleToLongBits(extraLabelNumericValue);
+            int h = name.hashCode();
+            h = 31 * h + Objects.hashCode(labels);
+            h = 31 * h + Objects.hashCode(extraLabelName);
+            h = 31 * h + Objects.hashCode(extraLabelValue);
+            h = 31 * h + Long.hashCode(extraLabelNumericBits);
+            this.hash = h;
+        }
+
+        private SeriesKey copy() {
+            SeriesKey copy = new SeriesKey();
+            copy.name = name;
+            copy.labels = labels;
+            copy.extraLabelName = extraLabelName;
+            copy.extraLabelValue = extraLabelValue;
+            copy.extraLabelNumericBits = extraLabelNumericBits;
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey other)) {
+                return false;
+            }
+            return hash == other.hash
+                    && extraLabelNumericBits == other.extraLabelNumericBits
+                    && name.equals(other.name)
+                    && Objects.equals(extraLabelName, other.extraLabelName)
+                    && Objects.equals(extraLabelValue, other.extraLabelValue)
+                    && Objects.equals(labels, other.labels);
+        }
+    }
+}
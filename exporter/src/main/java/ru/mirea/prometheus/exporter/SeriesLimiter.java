@@ -0,0 +1,78 @@
+package ru.mirea.prometheus.exporter;
+
+import java.util.Arrays;
+
+/**
+ * Admits at most a fixed number of distinct series per window. Admitted series are remembered in a bloom
+ * filter sized for the limit, so memory stays at about 10 bits per admitted series no matter how many distinct
+ * series are offered. A false positive lets an over-limit series through, which happens for about 1% of them.
+ * <p>
+ * Not thread-safe; the exporter processes a metric on one thread at a time.
+ */
+final class SeriesLimiter {
+
+    private static final int HASH_FUNCTIONS = 7;
+    private static final double BITS_PER_SERIES = 9.6;
+
+    private final int maxSeries;
+    private final long windowMillis;
+    private final long[] bits;
+    private final int bitCount;
+
+    private int admitted;
+    private long windowEnd;
+    private boolean limited;
+
+    SeriesLimiter(int maxSeries, long windowMillis) {
+        this.maxSeries = maxSeries;
+        this.windowMillis = windowMillis;
+        long words = (long) Math.ceil(maxSeries * BITS_PER_SERIES / 64);
+        this.bits = new long[(int) Math.max(1, Math.min(Integer.MAX_VALUE / 64, words))];
+        this.bitCount = bits.length * 64;
+    }
+
+    /**
+     * Returns whether the series may be sent at the given time, admitting it if it is new and the limit of
+     * the current window is not reached yet.
+     */
+    boolean admit(long seriesHash, long timestamp) {
+        if (timestamp >= windowEnd) {
+            Arrays.fill(bits, 0);
+            admitted = 0;
+            limited = false;
+            windowEnd = timestamp + windowMillis;
+        }
+        int h1 = (int) seriesHash;
+        int h2 = (int) (seriesHash >>> 32);
+        if (contains(h1, h2)) {
+            return true;
+        }
+        if (admitted >= maxSeries) {
+            limited = true;
+            return false;
+        }
+        for (int i = 1; i <= HASH_FUNCTIONS; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        admitted++;
+        return true;
+    }
+
+    /**
+     * Returns whether a series was rejected during the current window.
+     */
+    boolean isLimited() {
+        return limited;
+    }
+
+    private boolean contains(int h1, int h2) {
+        for (int i = 1; i <= HASH_FUNCTIONS; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,292 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends encoded requests through a set of shards, each with its own bounded queue and sender thread,
+ * in the spirit of the Prometheus remote-write queue manager.
+ * <p>
+ * Series are routed to shards by label hash, so samples of one series are always sent in order.
+ * The number of active shards is re-evaluated every send interval on a thread of the sender, from the time
+ * shards spent sending relative to the time passed, so the export cycle never waits for it. Like the Prometheus
+ * queue manager, a reshard first waits for the queued requests to drain, for at most half a send interval,
+ * and then switches to the new count; requests still queued after that may reach the receiver after newer
+ * samples of the same series.
+ * A full shard queue drops a request, the arriving or the oldest one depending on the
+ * {@link QueueOverflowPolicy}, and counts it instead of blocking the export cycle.
+ */
+@Slf4j
+public class ShardedSender implements RemoteWriteSink, MeterBinder, AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private static final double TARGET_UTILIZATION = 0.7;
+    private static final double RESHARD_TOLERANCE = 0.3;
+    private static final int DRAIN_TIMEOUT_DIVISOR = 2;
+
+    private final PrometheusRemoteWriteClient remoteWriteClient;
+    private final int minShards;
+    private final int maxShards;
+    private final long sendIntervalNanos;
+    private final QueueOverflowPolicy overflowPolicy;
+    private final BlockingQueue<Batch>[] queues;
+    private final Thread[] workers;
+    private final ScheduledExecutorService resharder;
+
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    private final Object drained = new Object();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder sendNanosTotal = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+    private final LongAdder droppedBatches = new LongAdder();
+    private final LongAdder droppedSeries = new LongAdder();
+
+    private volatile int activeShards;
+    private volatile boolean running = true;
+    private long lastReshardNanos;
+
+    public ShardedSender(PrometheusRemoteWriteClient remoteWriteClient, int minShards, int maxShards,
+                         Duration sendInterval) {
+        this(remoteWriteClient, minShards, maxShards, DEFAULT_QUEUE_CAPACITY, sendInterval);
+    }
+
+    public ShardedSender(PrometheusRemoteWriteClient remoteWriteClient, int minShards, int maxShards,
+                         int queueCapacity, Duration sendInterval) {
+        this(remoteWriteClient, minShards, maxShards, queueCapacity, QueueOverflowPolicy.DROP_NEWEST, sendInterval);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ShardedSender(PrometheusRemoteWriteClient remoteWriteClient, int minShards, int maxShards,
+                         int queueCapacity, QueueOverflowPolicy overflowPolicy, Duration sendInterval) {
+        if (minShards <= 0 || maxShards < minShards) {
+            throw new IllegalArgumentException("Shards must satisfy 0 < minShards <= maxShards");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("QueueCapacity must be greater than 0");
+        }
+        if (sendInterval.isNegative() || sendInterval.isZero()) {
+            throw new IllegalArgumentException("SendInterval must be greater than 0");
+        }
+        this.remoteWriteClient = remoteWriteClient;
+        this.minShards = minShards;
+        this.maxShards = maxShards;
+        this.sendIntervalNanos = sendInterval.toNanos();
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : QueueOverflowPolicy.DROP_NEWEST;
+        this.activeShards = minShards;
+        this.queues = new BlockingQueue[maxShards];
+        this.workers = new Thread[maxShards];
+        for (int i = 0; i < maxShards; i++) {
+            BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues[i] = queue;
+            workers[i] = new Thread(() -> drain(queue), "remote-write-shard-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        this.resharder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remote-write-resharder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastReshardNanos = System.nanoTime();
+        this.resharder.scheduleWithFixedDelay(this::reshard, sendIntervalNanos, sendIntervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int shards() {
+        return activeShards;
+    }
+
+    @Override
+    public RemoteWriteProtocol protocol() {
+        return remoteWriteClient.protocol();
+    }
+
+    @Override
+    public HistogramFormat histogramFormat() {
+        return remoteWriteClient.histogramFormat();
+    }
+
+    @Override
+    public int maxRequestBytes() {
+        return remoteWriteClient.maxRequestBytes();
+    }
+
+    @Override
+    public int maxSeriesPerRequest() {
+        return remoteWriteClient.maxSeriesPerRequest();
+    }
+
+    @Override
+    public void write(int shard, WriteRequestBuffer writeRequest) {
+        ByteBuffer body;
+        try {
+            body = remoteWriteClient.compress(writeRequest.buffer(), writeRequest.getSeriesCount());
+        } catch (IOException e) {
+            log.error("Unable to compress remote-write request", e);
+            droppedBatches.increment();
+            droppedSeries.add(writeRequest.getSeriesCount());
+            return;
+        }
+        Batch batch = new Batch(body, writeRequest.getProtocol(), writeRequest.getSeriesCount());
+        BlockingQueue<Batch> queue = queues[shard];
+        pendingBatches.incrementAndGet();
+        while (!queue.offer(batch)) {
+            Batch dropped = overflowPolicy == QueueOverflowPolicy.DROP_OLDEST ? queue.poll() : batch;
+            if (dropped == null) {
+                continue;
+            }
+            remoteWriteClient.release(dropped.body);
+            batchDone();
+            droppedBatches.increment();
+            droppedSeries.add(dropped.seriesCount);
+            log.warn("Remote-write shard {} queue is full, dropping request with {} series",
+                    shard, dropped.seriesCount);
+            if (dropped == batch) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindTo(registry, Tags.empty());
+    }
+
+    /**
+     * Same as {@link #bindTo(MeterRegistry)} with the given tags added to the meters of the sender and its
+     * client, so that several senders can report to one registry.
+     */
+    public void bindTo(MeterRegistry registry, Iterable<Tag> tags) {
+        remoteWriteClient.bindTo(registry, tags);
+        Gauge.builder("exporter.sender.shards", this, sender -> sender.activeShards)
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("exporter.sender.pending.batches", pendingBatches, AtomicInteger::get)
+                .tags(tags)
+                .register(registry);
+        FunctionTimer.builder("exporter.sender.send", this,
+                        sender -> sender.sentBatches.sum(),
+                        sender -> sender.sendNanosTotal.sum(),
+                        TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("exporter.sender.dropped.batches", droppedBatches, LongAdder::sum)
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("exporter.sender.dropped.series", droppedSeries, LongAdder::sum)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private void reshard() {
+        long now = System.nanoTime();
+        long elapsed = now - lastReshardNanos;
+        lastReshardNanos = now;
+        long busy = busyNanos.sumThenReset();
+        int current = activeShards;
+        int desired = (int) Math.ceil(busy / (elapsed * TARGET_UTILIZATION));
+        desired = Math.max(minShards, Math.min(maxShards, desired));
+        if (Math.abs(desired - current) <= current * RESHARD_TOLERANCE) {
+            return;
+        }
+        if (!awaitDrained(sendIntervalNanos / DRAIN_TIMEOUT_DIVISOR)) {
+            if (!running) {
+                return;
+            }
+            log.warn("Resharding remote-write sender from {} to {} shards with {} requests still queued",
+                    current, desired, pendingBatches.get());
+        } else {
+            log.info("Resharding remote-write sender from {} to {} shards", current, desired);
+        }
+        activeShards = desired;
+    }
+
+    private boolean awaitDrained(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (drained) {
+            while (pendingBatches.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(drained, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void batchDone() {
+        if (pendingBatches.decrementAndGet() == 0) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+
+    private void drain(BlockingQueue<Batch> queue) {
+        while (running) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                remoteWriteClient.writeCompressed(batch.body, batch.protocol, batch.seriesCount);
+            } finally {
+                remoteWriteClient.release(batch.body);
+                long elapsed = System.nanoTime() - start;
+                busyNanos.add(elapsed);
+                sendNanosTotal.add(elapsed);
+                sentBatches.increment();
+                batchDone();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        resharder.shutdownNow();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private record Batch(ByteBuffer body, RemoteWriteProtocol protocol, int seriesCount) {
+    }
+}
@@ -0,0 +1,37 @@
+package ru.mirea.prometheus.exporter;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Block-format snappy, the only encoding required by the remote-write specification.
+ */
+public class SnappyCodec implements CompressionCodec {
+
+    @Override
+    public String contentEncoding() {
+        return "snappy";
+    }
+
+    @Override
+    public int maxCompressedLength(int uncompressedLength) {
+        return Snappy.maxCompressedLength(uncompressedLength);
+    }
+
+    @Override
+    public int compress(ByteBuffer uncompressed, ByteBuffer compressed) throws IOException {
+        return Snappy.compress(uncompressed, compressed);
+    }
+
+    @Override
+    public int uncompressedLength(ByteBuffer compressed) throws IOException {
+        return Snappy.uncompressedLength(compressed);
+    }
+
+    @Override
+    public int decompress(ByteBuffer compressed, ByteBuffer uncompressed) throws IOException {
+        return Snappy.uncompress(compressed, uncompressed);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.mirea.prometheus.exporter;
+
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import ru.mirea.prometheus.exporter.Relabeler.MetricRules;
+
+@FunctionalInterface
+interface SnapshotProcessor {
+
+    void process(MetricSnapshot snapshot, String meterName, MetricRules rules, long timestamp,
+                 RemoteWriteEncoder encoder);
+}
@@ -0,0 +1,88 @@
+package ru.mirea.prometheus.exporter;
+
+import java.util.Arrays;
+
+/**
+ * Per-request string interning for Remote Write 2.0. Open addressing keeps lookups allocation-free,
+ * and {@link #reset()} keeps the arrays so a table is reused across requests.
+ */
+final class SymbolTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] keys;
+    private int[] refs;
+    private String[] symbols;
+    private int size;
+
+    SymbolTable() {
+        this.keys = new String[INITIAL_CAPACITY];
+        this.refs = new int[INITIAL_CAPACITY];
+        this.symbols = new String[INITIAL_CAPACITY / 2];
+        reset();
+    }
+
+    int ref(String symbol) {
+        int mask = keys.length - 1;
+        int slot = mix(symbol.hashCode()) & mask;
+        while (true) {
+            String key = keys[slot];
+            if (key == null) {
+                break;
+            }
+            if (key == symbol || key.equals(symbol)) {
+                return refs[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int ref = size++;
+        keys[slot] = symbol;
+        refs[slot] = ref;
+        if (ref == symbols.length) {
+            symbols = Arrays.copyOf(symbols, symbols.length << 1);
+        }
+        symbols[ref] = symbol;
+        if (size << 1 > keys.length) {
+            rehash();
+        }
+        return ref;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String symbol(int ref) {
+        return symbols[ref];
+    }
+
+    void reset() {
+        Arrays.fill(keys, null);
+        Arrays.fill(symbols, 0, size, null);
+        size = 0;
+        ref("");
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldRefs = refs;
+        keys = new String[oldKeys.length << 1];
+        refs = new int[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            String key = oldKeys[i];
+            if (key != null) {
+                int slot = mix(key.hashCode()) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                refs[slot] = oldRefs[i];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,297 @@
+package ru.mirea.prometheus.exporter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable FIFO of compressed remote-write bodies stored in memory-mapped segment files.
+ * <p>
+ * Records are appended to the newest segment and consumed in order with {@link #next(long, TimeUnit)}
+ * followed by {@link #ack()}. The position of the first unacknowledged record is persisted in a checkpoint
+ * file, so pending records are replayed after a restart. When the log exceeds its disk budget the oldest
+ * segment is dropped, even if it still holds unacknowledged records.
+ */
+@Slf4j
+public class WriteAheadLog implements AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_DISK_BYTES = 512L * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2 + 1;
+    private static final int CHECKPOINT_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<Long> segments = new ArrayDeque<>();
+    private final FileChannel checkpointChannel;
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(CHECKPOINT_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private long writeSegmentId;
+    private MappedByteBuffer writeBuffer;
+
+    private long readSegmentId;
+    private int readOffset;
+    private MappedByteBuffer readBuffer;
+    private int pendingLength = -1;
+
+    private long droppedSegments;
+    private boolean closed;
+
+    public WriteAheadLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    public WriteAheadLog(Path directory, int segmentSize, long maxDiskBytes) {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("SegmentSize must be greater than " + RECORD_HEADER_SIZE);
+        }
+        if (maxDiskBytes < 2L * segmentSize) {
+            throw new IllegalArgumentException("MaxDiskBytes must hold at least two segments");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxDiskBytes / segmentSize);
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.map(path -> path.getFileName().toString())
+                        .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                        .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                        .sorted()
+                        .forEach(segments::addLast);
+            }
+            this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.writeSegmentId = segments.isEmpty() ? 0 : segments.peekLast() + 1;
+            this.writeBuffer = map(writeSegmentId);
+            segments.addLast(writeSegmentId);
+            restoreCheckpoint();
+            enforceDiskLimit();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open write-ahead log in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a record and forces it to disk. Never blocks on the consumer: when the disk budget is exhausted
+     * the oldest segment is dropped instead.
+     */
+    public void append(byte[] data, int offset, int length) {
+        append(0, ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer tagged with a caller-defined type in {@code [0, 127]},
+     * see {@link #append(byte[], int, int)}.
+     */
+    public synchronized void append(int type, ByteBuffer data) {
+        int length = data.remaining();
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        if (length <= 0 || length > segmentSize - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Record of " + length + " bytes does not fit into a segment");
+        }
+        try {
+            if (writeBuffer.remaining() < RECORD_HEADER_SIZE + length) {
+                rollSegment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        crc.reset();
+        crc.update(data.duplicate());
+        int position = writeBuffer.position();
+        writeBuffer.putInt(length);
+        writeBuffer.putInt((int) crc.getValue());
+        writeBuffer.put((byte) type);
+        writeBuffer.put(data);
+        writeBuffer.force(position, RECORD_HEADER_SIZE + length);
+        notifyAll();
+    }
+
+    /**
+     * Returns a copy of the oldest unacknowledged record, waiting up to the timeout for one to be appended.
+     * Repeated calls without {@link #ack()} return the same record.
+     */
+    public synchronized Record next(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed) {
+            ByteBuffer segment = readSegment();
+            int length = recordLength(segment, readOffset);
+            if (length > 0) {
+                pendingLength = length;
+                byte[] data = new byte[length];
+                segment.get(readOffset + RECORD_HEADER_SIZE, data);
+                return new Record(segment.get(readOffset + Integer.BYTES * 2), data);
+            }
+            if (readSegmentId < writeSegmentId) {
+                finishReadSegment();
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return null;
+    }
+
+    /**
+     * Marks the record returned by the last {@link #next(long, TimeUnit)} call as delivered.
+     */
+    public synchronized void ack() {
+        if (pendingLength < 0) {
+            return;
+        }
+        readOffset += RECORD_HEADER_SIZE + pendingLength;
+        pendingLength = -1;
+        writeCheckpoint();
+    }
+
+    public synchronized long getDroppedSegments() {
+        return droppedSegments;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        try {
+            checkpointChannel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close write-ahead log checkpoint in {}", directory, e);
+        }
+    }
+
+    private ByteBuffer readSegment() {
+        if (readSegmentId == writeSegmentId) {
+            return writeBuffer;
+        }
+        if (readBuffer == null) {
+            try {
+                readBuffer = map(readSegmentId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return readBuffer;
+    }
+
+    private int recordLength(ByteBuffer segment, int offset) {
+        if (offset + RECORD_HEADER_SIZE > segmentSize) {
+            return 0;
+        }
+        int length = segment.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > segmentSize) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(segment.slice(offset + RECORD_HEADER_SIZE, length));
+        if ((int) crc.getValue() != segment.getInt(offset + Integer.BYTES)) {
+            log.warn("Corrupted record in write-ahead log segment {} at offset {}, skipping the rest of the segment",
+                    readSegmentId, offset);
+            return 0;
+        }
+        return length;
+    }
+
+    private void finishReadSegment() {
+        deleteSegment(segments.pollFirst());
+        readSegmentId = segments.isEmpty() ? writeSegmentId : segments.peekFirst();
+        readOffset = 0;
+        readBuffer = null;
+        pendingLength = -1;
+        writeCheckpoint();
+    }
+
+    private void rollSegment() throws IOException {
+        writeSegmentId++;
+        writeBuffer = map(writeSegmentId);
+        segments.addLast(writeSegmentId);
+        enforceDiskLimit();
+    }
+
+    private void enforceDiskLimit() {
+        while (segments.size() > maxSegments) {
+            long oldest = segments.peekFirst();
+            droppedSegments++;
+            log.warn("Write-ahead log in {} exceeded its disk budget, dropping segment {}", directory, oldest);
+            if (oldest == readSegmentId) {
+                finishReadSegment();
+            } else {
+                deleteSegment(segments.pollFirst());
+            }
+        }
+    }
+
+    private void restoreCheckpoint() throws IOException {
+        readSegmentId = segments.peekFirst();
+        readOffset = 0;
+        checkpointBuffer.clear();
+        if (checkpointChannel.read(checkpointBuffer, 0) == CHECKPOINT_SIZE) {
+            long segmentId = checkpointBuffer.getLong(0);
+            int offset = checkpointBuffer.getInt(Long.BYTES);
+            if (segments.contains(segmentId)) {
+                while (segments.peekFirst() < segmentId) {
+                    deleteSegment(segments.pollFirst());
+                }
+                readSegmentId = segmentId;
+                readOffset = offset;
+            }
+        }
+    }
+
+    private void writeCheckpoint() {
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(readSegmentId).putInt(readOffset).flip();
+        try {
+            checkpointChannel.write(checkpointBuffer, 0);
+        } catch (IOException e) {
+            log.warn("Unable to write write-ahead log checkpoint in {}", directory, e);
+        }
+    }
+
+    private MappedByteBuffer map(long segmentId) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void deleteSegment(long segmentId) {
+        try {
+            Files.deleteIfExists(segmentPath(segmentId));
+        } catch (IOException e) {
+            log.warn("Unable to delete write-ahead log segment {} in {}", segmentId, directory, e);
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%020d%s", segmentId, SEGMENT_SUFFIX));
+    }
+
+    public record Record(int type, byte[] data) {
+    }
+}
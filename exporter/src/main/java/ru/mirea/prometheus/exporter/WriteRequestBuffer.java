@@ -0,0 +1,131 @@
+package ru.mirea.prometheus.exporter;
+
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable growable buffer holding the wire format of a single remote-write request.
+ * The bytes are kept in a direct buffer that survives {@link #reset()}, so after warm-up encoding does not
+ * allocate and the request can be compressed without copying it through the heap.
+ */
+public class WriteRequestBuffer extends OutputStream {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 64 * 1024;
+    private static final int CODED_OUTPUT_BUFFER_SIZE = 8 * 1024;
+
+    private final CodedOutputStream output;
+    private ByteBuffer buffer;
+    private int seriesCount;
+    private int encodedSize;
+    private RemoteWriteProtocol protocol = RemoteWriteProtocol.V1;
+    private SymbolTable symbolTable;
+
+    public WriteRequestBuffer() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public WriteRequestBuffer(int initialCapacity) {
+        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+        this.output = CodedOutputStream.newInstance(this, CODED_OUTPUT_BUFFER_SIZE);
+    }
+
+    CodedOutputStream output() {
+        return output;
+    }
+
+    /**
+     * Counts a written series together with its encoded size, including any 2.0 symbols it added.
+     */
+    void seriesWritten(int size) {
+        seriesCount++;
+        encodedSize += size;
+    }
+
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    /**
+     * Returns the size of the complete request, tracked as series are written so that it is known without
+     * flushing the coded stream.
+     */
+    public int getEncodedSize() {
+        return encodedSize;
+    }
+
+    public RemoteWriteProtocol getProtocol() {
+        return protocol;
+    }
+
+    void setProtocol(RemoteWriteProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    SymbolTable symbolTable() {
+        if (symbolTable == null) {
+            symbolTable = new SymbolTable();
+        }
+        return symbolTable;
+    }
+
+    /**
+     * Flushes pending bytes of the coded stream so that {@link #buffer()} and {@link #size()} are consistent.
+     */
+    public void flushEncoded() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a view of the encoded bytes, valid until the next write or {@link #reset()}.
+     */
+    public ByteBuffer buffer() {
+        return buffer.duplicate().flip();
+    }
+
+    public int size() {
+        return buffer.position();
+    }
+
+    public boolean isEmpty() {
+        return seriesCount == 0;
+    }
+
+    public void reset() {
+        flushEncoded();
+        buffer.clear();
+        seriesCount = 0;
+        encodedSize = 0;
+        if (symbolTable != null) {
+            symbolTable.reset();
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() < length) {
+            int capacity = Math.max(buffer.position() + length, buffer.capacity() << 1);
+            ByteBuffer resized = ByteBuffer.allocateDirect(capacity);
+            resized.put(buffer.flip());
+            buffer = resized;
+        }
+    }
+}
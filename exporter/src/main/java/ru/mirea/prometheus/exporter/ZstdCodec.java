@@ -0,0 +1,79 @@
+package ru.mirea.prometheus.exporter;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Zstandard encoding accepted by VictoriaMetrics. Much smaller than snappy on the wire at a higher CPU cost.
+ * Every thread reuses its own compression context, so no native state is allocated per request.
+ */
+public class ZstdCodec implements CompressionCodec {
+
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final int level;
+    private final ThreadLocal<ZstdCompressCtx> context;
+    private final ThreadLocal<ZstdDecompressCtx> decompressContext = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    public ZstdCodec() {
+        this(DEFAULT_LEVEL);
+    }
+
+    public ZstdCodec(int level) {
+        if (level < Zstd.minCompressionLevel() || level > Zstd.maxCompressionLevel()) {
+            throw new IllegalArgumentException("Zstd level must be between " + Zstd.minCompressionLevel()
+                    + " and " + Zstd.maxCompressionLevel());
+        }
+        this.level = level;
+        this.context = ThreadLocal.withInitial(() -> new ZstdCompressCtx().setLevel(level));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String contentEncoding() {
+        return "zstd";
+    }
+
+    @Override
+    public int maxCompressedLength(int uncompressedLength) {
+        return (int) Zstd.compressBound(uncompressedLength);
+    }
+
+    @Override
+    public int compress(ByteBuffer uncompressed, ByteBuffer compressed) {
+        return context.get().compressDirectByteBuffer(
+                compressed, compressed.position(), compressed.remaining(),
+                uncompressed, uncompressed.position(), uncompressed.remaining());
+    }
+
+    /**
+     * Returns the content size of the frame, which must be declared in its header as it is by this codec.
+     */
+    @Override
+    public int uncompressedLength(ByteBuffer compressed) throws IOException {
+        long size = Zstd.decompressedDirectByteBufferSize(compressed, compressed.position(), compressed.remaining());
+        if (size <= 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Zstd frame does not declare a supported content size");
+        }
+        return (int) size;
+    }
+
+    @Override
+    public int decompress(ByteBuffer compressed, ByteBuffer uncompressed) throws IOException {
+        try {
+            return decompressContext.get().decompressDirectByteBuffer(
+                    uncompressed, uncompressed.position(), uncompressed.remaining(),
+                    compressed, compressed.position(), compressed.remaining());
+        } catch (ZstdException e) {
+            throw new IOException("Malformed zstd frame", e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ru.mirea.prometheus.exporter.MockRemoteWriteReceiver.ReceivedSample;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static ru.mirea.prometheus.exporter.PrometheusRemoteWriteClientTest.SYSTEM_INFO;
+import static ru.mirea.prometheus.exporter.PrometheusRemoteWriteClientTest.labels;
+
+class MetricExporterTest {
+
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+    private static final Duration STEP = Duration.ofSeconds(60);
+
+    private MockRemoteWriteReceiver receiver;
+    private PrometheusRemoteWriteClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        receiver = new MockRemoteWriteReceiver(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        receiver.close();
+    }
+
+    @Test
+    void scrapeAndPushModesWriteTheSameSeries() {
+        client = client(RemoteWriteProtocol.V1, HistogramFormat.CLASSIC);
+        PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Counter.builder("http.requests").tag("method", "GET").register(meterRegistry).increment(5);
+        try (MetricExporter exporter = exporter(meterRegistry)) {
+            exporter.export(meterRegistry.getPrometheusRegistry().scrape(), TIMESTAMP);
+        }
+
+        MockClock clock = new MockClock();
+        clock.add(Duration.ofMillis(TIMESTAMP).plus(STEP));
+        RemoteWriteMeterRegistry pushRegistry = RemoteWriteMeterRegistry.builder()
+                .systemInfo(SYSTEM_INFO)
+                .remoteWriteSink(client)
+                .step(STEP)
+                .clock(clock)
+                .build();
+        Counter.builder("http.requests").tag("method", "GET").register(pushRegistry).increment(7);
+        pushRegistry.publish();
+        long pushTimestamp = clock.wallTime() / STEP.toMillis() * STEP.toMillis();
+
+        assertEquals(List.of(new ReceivedSample(5, TIMESTAMP), new ReceivedSample(7, pushTimestamp)),
+                receiver.samples("http_requests", labels("method", "GET")));
+        assertEquals(List.of(), receiver.samples("http_requests_total", labels("method", "GET")));
+    }
+
+    @ParameterizedTest
+    @EnumSource(RemoteWriteProtocol.class)
+    void sendsNativeHistograms(RemoteWriteProtocol protocol) {
+        client = client(protocol, HistogramFormat.NATIVE);
+        PrometheusRegistry registry = new PrometheusRegistry();
+        Histogram latency = Histogram.builder()
+                .name("request_latency_seconds")
+                .help("Request latency")
+                .nativeOnly()
+                .register(registry);
+        latency.observe(0.1);
+        latency.observe(0.4);
+        try (MetricExporter exporter = exporter(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT))) {
+            exporter.export(registry.scrape(), TIMESTAMP);
+        }
+
+        assertEquals(1, receiver.histograms());
+        assertEquals(0, receiver.samples());
+    }
+
+    private PrometheusRemoteWriteClient client(RemoteWriteProtocol protocol, HistogramFormat histogramFormat) {
+        return PrometheusRemoteWriteClient.builder()
+                .apiUrl(receiver.url())
+                .userAgent("exporter-test")
+                .authorization("Bearer test")
+                .protocol(protocol)
+                .histogramFormat(histogramFormat)
+                .build();
+    }
+
+    private MetricExporter exporter(PrometheusMeterRegistry meterRegistry) {
+        return MetricExporter.builder()
+                .systemInfo(SYSTEM_INFO)
+                .meterRegistry(meterRegistry)
+                .remoteWriteSink(client)
+                .build();
+    }
+}
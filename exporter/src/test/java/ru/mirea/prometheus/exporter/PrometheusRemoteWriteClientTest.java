@@ -0,0 +1,220 @@
+package ru.mirea.prometheus.exporter;
+
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mirea.prometheus.exporter.MockRemoteWriteReceiver.ReceivedSample;
+import ru.mirea.prometheus.exporter.RemoteWriteEncoder.MetricType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrometheusRemoteWriteClientTest {
+
+    static final SystemInfo SYSTEM_INFO = new SystemInfo("test-group", "test-system", "test", "host-1");
+    static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+    private static final int WAL_SEGMENT_SIZE = 1024 * 1024;
+
+    @TempDir
+    Path walDirectory;
+
+    private MockRemoteWriteReceiver receiver;
+    private PrometheusRemoteWriteClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        receiver = new MockRemoteWriteReceiver(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        receiver.close();
+    }
+
+    @Test
+    void sendsV1SeriesWithSystemLabelsInOrder() {
+        client = client(RemoteWriteProtocol.V1, null);
+        RemoteWriteEncoder encoder = encoder(client);
+
+        writeCycle(encoder, 1, TIMESTAMP);
+        writeCycle(encoder, 3, TIMESTAMP + 10_000);
+
+        assertReceived(TIMESTAMP, 1, 3);
+        assertEquals(2, receiver.requests());
+    }
+
+    @Test
+    void sendsV2SeriesWithSystemLabelsInOrder() {
+        client = client(RemoteWriteProtocol.V2, null);
+        RemoteWriteEncoder encoder = encoder(client);
+
+        writeCycle(encoder, 1, TIMESTAMP);
+        writeCycle(encoder, 3, TIMESTAMP + 10_000);
+
+        assertReceived(TIMESTAMP, 1, 3);
+        assertEquals(RemoteWriteProtocol.V2, client.protocol());
+    }
+
+    @Test
+    void resendsRequestRejectedWith415AsV1() {
+        client = client(RemoteWriteProtocol.V2, null);
+        RemoteWriteEncoder encoder = encoder(client);
+        receiver.failNext(1, 415);
+
+        writeCycle(encoder, 1, TIMESTAMP);
+        writeCycle(encoder, 3, TIMESTAMP + 10_000);
+
+        assertEquals(RemoteWriteProtocol.V1, client.protocol());
+        assertEquals(1, receiver.rejectedRequests());
+        assertReceived(TIMESTAMP, 1, 3);
+    }
+
+    @Test
+    void honorsRetryAfterOf429() {
+        client = client(RemoteWriteProtocol.V1, null);
+        RemoteWriteEncoder encoder = encoder(client);
+        receiver.setRetryAfter(Duration.ofSeconds(1));
+        receiver.failNext(1, 429);
+
+        long start = System.nanoTime();
+        writeCycle(encoder, 1, TIMESTAMP);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, receiver.rejectedRequests());
+        assertReceived(TIMESTAMP, 1);
+    }
+
+    @Test
+    void retriesServerErrors() {
+        client = client(RemoteWriteProtocol.V1, null);
+        RemoteWriteEncoder encoder = encoder(client);
+        receiver.failNext(2, 503);
+
+        writeCycle(encoder, 1, TIMESTAMP);
+
+        assertEquals(2, receiver.rejectedRequests());
+        assertReceived(TIMESTAMP, 1);
+    }
+
+    @Test
+    void dropsRequestRejectedWith400() {
+        client = client(RemoteWriteProtocol.V1, null);
+        RemoteWriteEncoder encoder = encoder(client);
+        receiver.failNext(1, 400);
+
+        writeCycle(encoder, 1, TIMESTAMP);
+        writeCycle(encoder, 3, TIMESTAMP + 10_000);
+
+        assertEquals(1, receiver.rejectedRequests());
+        assertReceived(TIMESTAMP + 10_000, 3);
+    }
+
+    @Test
+    void replaysWriteAheadLogAfterRestart() throws Exception {
+        receiver.setFailureRate(1, 503);
+        client = client(RemoteWriteProtocol.V1, new WriteAheadLog(walDirectory, WAL_SEGMENT_SIZE,
+                4L * WAL_SEGMENT_SIZE));
+        writeCycle(encoder(client), 1, TIMESTAMP);
+        await(() -> receiver.rejectedRequests() > 0);
+        client.close();
+        assertEquals(0, receiver.samples());
+
+        receiver.setFailureRate(0, 503);
+        client = client(RemoteWriteProtocol.V1, new WriteAheadLog(walDirectory, WAL_SEGMENT_SIZE,
+                4L * WAL_SEGMENT_SIZE));
+        receiver.awaitSamples(2, TIMEOUT);
+
+        assertReceived(TIMESTAMP, 1);
+    }
+
+    @Test
+    void replaysV2RecordsAsV1AfterRejectionWith415() throws Exception {
+        client = client(RemoteWriteProtocol.V2, new WriteAheadLog(walDirectory, WAL_SEGMENT_SIZE,
+                4L * WAL_SEGMENT_SIZE));
+        receiver.failNext(1, 415);
+
+        writeCycle(encoder(client), 1, TIMESTAMP);
+        receiver.awaitSamples(2, TIMEOUT);
+
+        assertEquals(RemoteWriteProtocol.V1, client.protocol());
+        assertReceived(TIMESTAMP, 1);
+    }
+
+    static Map<String, String> labels(String... keyValuePairs) {
+        Map<String, String> labels = new HashMap<>(Map.of(
+                "instance", "host-1",
+                "group", "test-group",
+                "system", "test-system",
+                "env", "test"));
+        for (int i = 0; i + 1 < keyValuePairs.length; i += 2) {
+            labels.put(keyValuePairs[i], keyValuePairs[i + 1]);
+        }
+        return labels;
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met within " + TIMEOUT);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private PrometheusRemoteWriteClient client(RemoteWriteProtocol protocol, WriteAheadLog writeAheadLog) {
+        return PrometheusRemoteWriteClient.builder()
+                .apiUrl(receiver.url())
+                .userAgent("exporter-test")
+                .authorization("Bearer test")
+                .protocol(protocol)
+                .retryPolicy(new RetryPolicy(Duration.ofMillis(10), Duration.ofMillis(50), Duration.ofSeconds(5)))
+                .writeAheadLog(writeAheadLog)
+                .build();
+    }
+
+    private static RemoteWriteEncoder encoder(RemoteWriteSink sink) {
+        return new RemoteWriteEncoder(new SeriesLabelCache(SYSTEM_INFO), sink, null);
+    }
+
+    private static void writeCycle(RemoteWriteEncoder encoder, double value, long timestamp) {
+        encoder.beginMetric(new MetricMetadata("http_requests", "Requests served"), MetricType.COUNTER);
+        encoder.series("http_requests", Labels.of("method", "GET", "code", "200"), value, timestamp);
+        encoder.series("http_requests", Labels.of("method", "POST", "code", "500"), value * 2, timestamp);
+        encoder.finishCycle();
+    }
+
+    /**
+     * Asserts that exactly the two series written by {@link #writeCycle} were received, the GET series with the
+     * given values ten seconds apart starting at {@code timestamp}, in order.
+     */
+    private void assertReceived(long timestamp, double... values) {
+        List<ReceivedSample> get = new ArrayList<>();
+        List<ReceivedSample> post = new ArrayList<>();
+        for (double value : values) {
+            get.add(new ReceivedSample(value, timestamp));
+            post.add(new ReceivedSample(value * 2, timestamp));
+            timestamp += 10_000;
+        }
+        assertEquals(get, receiver.samples("http_requests", labels("method", "GET", "code", "200")));
+        assertEquals(post, receiver.samples("http_requests", labels("method", "POST", "code", "500")));
+        assertEquals(2, receiver.seriesLabels().size());
+        assertEquals(2L * values.length, receiver.samples());
+    }
+}
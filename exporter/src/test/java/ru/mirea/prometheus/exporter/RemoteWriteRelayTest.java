@@ -0,0 +1,85 @@
+package ru.mirea.prometheus.exporter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mirea.prometheus.exporter.MockRemoteWriteReceiver.ReceivedSample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RemoteWriteRelayTest {
+
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
+    private MockRemoteWriteReceiver receiver;
+    private PrometheusRemoteWriteClient client;
+    private RemoteWriteRelay relay;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        receiver = new MockRemoteWriteReceiver(true);
+        client = new PrometheusRemoteWriteClient(receiver.url(), "exporter-test", "Bearer test");
+        relay = RemoteWriteRelay.builder()
+                .remoteWriteSink(client)
+                .flushInterval(Duration.ZERO)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.close();
+        client.close();
+        receiver.close();
+    }
+
+    @Test
+    void batchesSeriesOfSeveralRequests() throws IOException {
+        relay.accept(compress(request("a", 1).toByteArray()), "snappy");
+        relay.accept(compress(request("b", 2).toByteArray()), "snappy");
+        relay.flush();
+
+        assertEquals(1, receiver.requests());
+        assertEquals(List.of(new ReceivedSample(1, TIMESTAMP)), receiver.samples("up", Map.of("job", "a")));
+        assertEquals(List.of(new ReceivedSample(2, TIMESTAMP)), receiver.samples("up", Map.of("job", "b")));
+    }
+
+    @Test
+    void rejectsMalformedRequestAsWhole() throws IOException {
+        RemoteWriteRequest.WriteRequest request = request("a", 1).toBuilder()
+                .addTimeseries(request("b", 2).getTimeseries(0))
+                .build();
+        byte[] encoded = request.toByteArray();
+        ByteBuffer truncated = compress(Arrays.copyOf(encoded, encoded.length - 2));
+
+        assertThrows(IOException.class, () -> relay.accept(truncated, "snappy"));
+        assertThrows(IOException.class, () -> relay.accept(compress(encoded), "gzip"));
+        relay.flush();
+
+        assertEquals(0, receiver.requests());
+    }
+
+    private static RemoteWriteRequest.WriteRequest request(String job, double value) {
+        RemoteWriteRequest.WriteRequest.Builder request = RemoteWriteRequest.WriteRequest.newBuilder();
+        request.addTimeseriesBuilder()
+                .addLabels(RemoteWriteRequest.Label.newBuilder().setName("__name__").setValue("up"))
+                .addLabels(RemoteWriteRequest.Label.newBuilder().setName("job").setValue(job))
+                .addSamples(RemoteWriteRequest.Sample.newBuilder().setValue(value).setTimestamp(TIMESTAMP));
+        return request.build();
+    }
+
+    private static ByteBuffer compress(byte[] request) throws IOException {
+        CompressionCodec codec = new SnappyCodec();
+        ByteBuffer uncompressed = ByteBuffer.allocateDirect(request.length).put(request).flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect(codec.maxCompressedLength(request.length));
+        compressed.limit(codec.compress(uncompressed, compressed));
+        return compressed;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.mirea.prometheus.exporter;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy(Duration.ofMillis(100), Duration.ofSeconds(1),
+            Duration.ofSeconds(10));
+
+    @Test
+    void retriesServerErrorsAndTooManyRequests() {
+        assertTrue(retryPolicy.isRetryable(429));
+        assertTrue(retryPolicy.isRetryable(500));
+        assertTrue(retryPolicy.isRetryable(503));
+        assertFalse(retryPolicy.isRetryable(400));
+        assertFalse(retryPolicy.isRetryable(415));
+    }
+
+    @Test
+    void backsOffExponentiallyUpToMaxBackoff() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(100, 100, retryPolicy.delayMillis(0, Optional.empty()));
+            assertBetween(100, 400, retryPolicy.delayMillis(2, Optional.empty()));
+            assertBetween(100, 1000, retryPolicy.delayMillis(10, Optional.empty()));
+            assertBetween(100, 1000, retryPolicy.delayMillis(Integer.MAX_VALUE, Optional.empty()));
+        }
+    }
+
+    @Test
+    void honorsRetryAfterSeconds() {
+        assertBetween(3000, 3100, retryPolicy.delayMillis(0, Optional.of("3")));
+        assertBetween(3000, 3100, retryPolicy.delayMillis(5, Optional.of(" 3 ")));
+    }
+
+    @Test
+    void honorsRetryAfterDate() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5));
+        // the date has a resolution of one second
+        assertBetween(3900, 5100, retryPolicy.delayMillis(0, Optional.of(date)));
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusHours(1));
+        assertBetween(0, 100, retryPolicy.delayMillis(0, Optional.of(past)));
+    }
+
+    @Test
+    void fallsBackToBackoffForInvalidRetryAfter() {
+        assertBetween(100, 400, retryPolicy.delayMillis(2, Optional.of("soon")));
+    }
+
+    @Test
+    void rejectsInvalidBackoff() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetryPolicy(Duration.ZERO, Duration.ofSeconds(1), Duration.ofSeconds(10)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetryPolicy(Duration.ofSeconds(2), Duration.ofSeconds(1), Duration.ofSeconds(10)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetryPolicy(Duration.ofMillis(100), Duration.ofSeconds(1), Duration.ofSeconds(-1)));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " is not in [" + min + ", " + max + "]");
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mirea.prometheus.exporter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.prometheus.metrics.model.snapshots.Labels;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static ru.mirea.prometheus.exporter.PrometheusRemoteWriteClientTest.SYSTEM_INFO;
+
+class SeriesLabelCacheTest {
+
+    @Test
+    void sortsLabelsByName() {
+        SeriesLabelCache cache = new SeriesLabelCache(SYSTEM_INFO);
+
+        SeriesLabelCache.Entry entry = cache.labels("http_requests", Labels.of("method", "GET", "code", "200"),
+                "le", null, 0.5);
+
+        assertArrayEquals(new String[]{
+                "__name__", "http_requests",
+                "code", "200",
+                "env", "test",
+                "group", "test-group",
+                "instance", "host-1",
+                "le", "0.5",
+                "method", "GET",
+                "system", "test-system"}, entry.symbols);
+        assertEquals(SeriesHash.hash(entry.labels), entry.id);
+    }
+
+    @Test
+    void resolvesLabelConflictsByPolicy() {
+        Labels labels = Labels.of("instance", "pod-1", "method", "GET");
+
+        assertArrayEquals(new String[]{"exported_instance", "pod-1", "instance", "host-1"},
+                instanceLabels(new SeriesLabelCache(SYSTEM_INFO, 10, LabelConflictPolicy.RENAME), labels));
+        assertArrayEquals(new String[]{"instance", "host-1"},
+                instanceLabels(new SeriesLabelCache(SYSTEM_INFO, 10, LabelConflictPolicy.DROP), labels));
+        assertArrayEquals(new String[]{"instance", "pod-1"},
+                instanceLabels(new SeriesLabelCache(SYSTEM_INFO, 10, LabelConflictPolicy.HONOR), labels));
+    }
+
+    @Test
+    void identifiesSeriesByTheirLabels() {
+        SeriesLabelCache cache = new SeriesLabelCache(SYSTEM_INFO);
+
+        long get = cache.labels("http_requests", Labels.of("method", "GET"), null, null, 0).id;
+        long post = cache.labels("http_requests", Labels.of("method", "POST"), null, null, 0).id;
+        long other = new SeriesLabelCache(SYSTEM_INFO, 1).labels("http_requests", Labels.of("method", "GET"),
+                null, null, 0).id;
+
+        assertNotEquals(get, post);
+        assertEquals(get, other);
+    }
+
+    @Test
+    void stopsCachingWhenFull() {
+        SeriesLabelCache cache = new SeriesLabelCache(SYSTEM_INFO, 1);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        Labels first = Labels.of("method", "GET");
+        Labels second = Labels.of("method", "POST");
+
+        for (int cycle = 0; cycle < 3; cycle++) {
+            SeriesLabelCache.Entry entry = cache.labels("http_requests", first, null, null, 0);
+            assertSame(entry, cache.labels("http_requests", first, null, null, 0));
+            cache.labels("http_requests", second, null, null, 0);
+            cache.sweep();
+        }
+
+        assertEquals(5, registry.get("exporter.label.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(3, registry.get("exporter.label.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("exporter.label.cache.size").gauge().value());
+        assertEquals(0, registry.get("exporter.label.cache.evictions").functionCounter().count());
+    }
+
+    private static String[] instanceLabels(SeriesLabelCache cache, Labels labels) {
+        String[] symbols = cache.labels("http_requests", labels, null, null, 0).symbols;
+        return IntStream.range(0, symbols.length / 2)
+                .filter(i -> symbols[2 * i].endsWith("instance"))
+                .boxed()
+                .flatMap(i -> Stream.of(symbols[2 * i], symbols[2 * i + 1]))
+                .toArray(String[]::new);
+    }
+}
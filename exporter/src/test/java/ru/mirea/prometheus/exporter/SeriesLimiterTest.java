@@ -0,0 +1,60 @@
+package ru.mirea.prometheus.exporter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SeriesLimiterTest {
+
+    private static final long WINDOW_MILLIS = 60_000;
+
+    @Test
+    void admitsUpToMaxSeriesPerWindow() {
+        SeriesLimiter limiter = new SeriesLimiter(100, WINDOW_MILLIS);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.admit(hash(i), 0));
+        }
+        assertFalse(limiter.isLimited());
+
+        int admitted = 0;
+        for (int i = 100; i < 1100; i++) {
+            if (limiter.admit(hash(i), 0)) {
+                admitted++;
+            }
+        }
+        assertTrue(limiter.isLimited());
+        // false positives of the bloom filter let about 1% of the rejected series through
+        assertTrue(admitted < 50, admitted + " series admitted beyond the limit");
+    }
+
+    @Test
+    void keepsAdmittingKnownSeries() {
+        SeriesLimiter limiter = new SeriesLimiter(10, WINDOW_MILLIS);
+        for (int i = 0; i < 20; i++) {
+            limiter.admit(hash(i), 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.admit(hash(i), 1_000));
+        }
+    }
+
+    @Test
+    void startsOverInNextWindow() {
+        SeriesLimiter limiter = new SeriesLimiter(1, WINDOW_MILLIS);
+        assertTrue(limiter.admit(hash(1), 0));
+        assertFalse(limiter.admit(hash(2), WINDOW_MILLIS - 1));
+        assertTrue(limiter.isLimited());
+
+        assertTrue(limiter.admit(hash(2), WINDOW_MILLIS));
+        assertFalse(limiter.isLimited());
+        assertFalse(limiter.admit(hash(1), WINDOW_MILLIS));
+        assertTrue(limiter.isLimited());
+    }
+
+    private static long hash(int series) {
+        return SeriesHash.hash(("series-" + series).getBytes(StandardCharsets.UTF_8));
+    }
+}
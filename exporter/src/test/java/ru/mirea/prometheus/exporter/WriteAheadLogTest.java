@@ -0,0 +1,126 @@
+package ru.mirea.prometheus.exporter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteAheadLogTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final long MAX_DISK_BYTES = 4L * SEGMENT_SIZE;
+    private static final int RECORD_HEADER_SIZE = 9;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void returnsRecordsInOrderUntilAcknowledged() throws InterruptedException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            append(log, 0, "first");
+            append(log, 1, "second");
+
+            assertRecord(log, 0, "first");
+            assertRecord(log, 0, "first");
+            log.ack();
+            assertRecord(log, 1, "second");
+            log.ack();
+            assertNull(log.next(10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void rollsOverToNewSegments() throws InterruptedException {
+        byte[] data = new byte[SEGMENT_SIZE / 3];
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            for (int i = 0; i < 5; i++) {
+                data[0] = (byte) i;
+                log.append(data, 0, data.length);
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, log.next(10, TimeUnit.MILLISECONDS).data()[0]);
+                log.ack();
+            }
+            assertEquals(0, log.getDroppedSegments());
+        }
+    }
+
+    @Test
+    void replaysUnacknowledgedRecordsAfterReopening() throws InterruptedException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            append(log, 0, "delivered");
+            append(log, 0, "pending");
+            assertRecord(log, 0, "delivered");
+            log.ack();
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            append(log, 0, "appended");
+            assertRecord(log, 0, "pending");
+            log.ack();
+            assertRecord(log, 0, "appended");
+        }
+    }
+
+    @Test
+    void skipsRestOfSegmentAfterCorruptedRecord() throws IOException, InterruptedException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            append(log, 0, "intact");
+            append(log, 0, "corrupted");
+        }
+        int corruptedOffset = RECORD_HEADER_SIZE + "intact".length() + RECORD_HEADER_SIZE;
+        try (FileChannel segment = FileChannel.open(directory.resolve(String.format("%020d.wal", 0)),
+                StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.wrap(new byte[]{'X'}), corruptedOffset);
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            assertRecord(log, 0, "intact");
+            log.ack();
+            assertNull(log.next(10, TimeUnit.MILLISECONDS));
+            append(log, 0, "appended");
+            assertRecord(log, 0, "appended");
+        }
+    }
+
+    @Test
+    void dropsOldestSegmentBeyondDiskBudget() throws InterruptedException {
+        byte[] data = new byte[SEGMENT_SIZE - RECORD_HEADER_SIZE];
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            for (int i = 0; i < 6; i++) {
+                data[0] = (byte) i;
+                log.append(data, 0, data.length);
+            }
+
+            assertEquals(2, log.getDroppedSegments());
+            assertEquals(2, log.next(10, TimeUnit.MILLISECONDS).data()[0]);
+        }
+    }
+
+    @Test
+    void rejectsRecordsLargerThanSegment() {
+        try (WriteAheadLog log = new WriteAheadLog(directory, SEGMENT_SIZE, MAX_DISK_BYTES)) {
+            byte[] data = new byte[SEGMENT_SIZE];
+            assertThrows(IllegalArgumentException.class, () -> log.append(data, 0, data.length));
+        }
+    }
+
+    private static void append(WriteAheadLog log, int type, String data) {
+        log.append(type, ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertRecord(WriteAheadLog log, int type, String data) throws InterruptedException {
+        WriteAheadLog.Record record = log.next(10, TimeUnit.MILLISECONDS);
+        assertEquals(type, record.type());
+        assertArrayEquals(data.getBytes(StandardCharsets.UTF_8), record.data());
+    }
+}
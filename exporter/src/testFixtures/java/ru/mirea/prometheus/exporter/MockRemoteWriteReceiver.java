@@ -0,0 +1,348 @@
+package ru.mirea.prometheus.exporter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process remote-write endpoint for end-to-end tests and benchmarks, running on the loopback interface
+ * without any external receiver. Requests are decompressed with the codec named by {@code Content-Encoding}
+ * and decoded as a 1.0 or 2.0 request depending on {@code Content-Type}. The receiver counts requests, bytes,
+ * series and samples and tracks the delay from a sample's timestamp to its arrival. With
+ * {@code recordSeries} it also keeps every received sample by label set, which costs memory proportional to
+ * the samples sent.
+ * <p>
+ * Faults can be injected while running: a fixed latency before answering, the next requests answered with a
+ * given status, and a share of requests answered with a given status. A {@code 429} carries a
+ * {@code Retry-After} header. Rejected requests are not decoded and not counted as received.
+ */
+@Slf4j
+public class MockRemoteWriteReceiver implements AutoCloseable {
+
+    public static final String PATH = "/api/v1/write";
+
+    private static final int THREADS = 8;
+    private static final String NAME_LABEL = "__name__";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean recordSeries;
+    private final Map<String, CompressionCodec> codecs = Map.of(
+            "snappy", new SnappyCodec(),
+            "zstd", new ZstdCodec());
+    private final Map<Map<String, String>, List<ReceivedSample>> series = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder receivedSeries = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder histograms = new LongAdder();
+    private final LongAdder delayMillisTotal = new LongAdder();
+    private final AtomicLong maxDelayMillis = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile double failureRate;
+    private volatile int failureStatus = 500;
+    private volatile long retryAfterSeconds = 1;
+    private final AtomicInteger pendingFailures = new AtomicInteger();
+    private volatile int pendingFailureStatus;
+
+    public MockRemoteWriteReceiver() throws IOException {
+        this(false);
+    }
+
+    public MockRemoteWriteReceiver(boolean recordSeries) throws IOException {
+        this.recordSeries = recordSeries;
+        this.executor = Executors.newFixedThreadPool(THREADS);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String url() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + PATH;
+    }
+
+    /**
+     * Waits before answering every following request.
+     */
+    public void setLatency(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+    }
+
+    /**
+     * Answers the next {@code count} requests with {@code status}, for example 500, 429 or 415.
+     */
+    public void failNext(int count, int status) {
+        pendingFailureStatus = status;
+        pendingFailures.set(count);
+    }
+
+    /**
+     * Answers a random {@code rate} share of the following requests with {@code status}, 0 to disable.
+     */
+    public void setFailureRate(double rate, int status) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Rate must be between 0 and 1");
+        }
+        this.failureStatus = status;
+        this.failureRate = rate;
+    }
+
+    public void setRetryAfter(Duration retryAfter) {
+        this.retryAfterSeconds = retryAfter.toSeconds();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body;
+            try (InputStream input = exchange.getRequestBody()) {
+                body = input.readAllBytes();
+            }
+            if (latencyMillis > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int status = injectedStatus();
+            if (status != 0) {
+                rejectedRequests.increment();
+                if (status == 429) {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                }
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            CompressionCodec codec = codecs.get(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            if (codec == null) {
+                exchange.sendResponseHeaders(415, -1);
+                return;
+            }
+            boolean v2 = RemoteWriteProtocol.V2.getContentType()
+                    .equals(exchange.getRequestHeaders().getFirst("Content-Type"));
+            try {
+                receive(body, codec, v2);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to decode remote-write request", e);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(204, -1);
+        }
+    }
+
+    private int injectedStatus() {
+        if (pendingFailures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            return pendingFailureStatus;
+        }
+        double rate = failureRate;
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            return failureStatus;
+        }
+        return 0;
+    }
+
+    private void receive(byte[] body, CompressionCodec codec, boolean v2) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocateDirect(body.length).put(body).flip();
+        ByteBuffer uncompressed = ByteBuffer.allocateDirect(codec.uncompressedLength(compressed.duplicate()));
+        uncompressed.limit(codec.decompress(compressed, uncompressed)).position(0);
+        long now = System.currentTimeMillis();
+        requests.increment();
+        compressedBytes.add(body.length);
+        uncompressedBytes.add(uncompressed.remaining());
+        if (v2) {
+            RemoteWriteV2Request.Request request = RemoteWriteV2Request.Request.parseFrom(uncompressed);
+            for (RemoteWriteV2Request.TimeSeries timeSeries : request.getTimeseriesList()) {
+                Map<String, String> labels = recordSeries ? new TreeMap<>() : null;
+                if (labels != null) {
+                    List<Integer> refs = timeSeries.getLabelsRefsList();
+                    for (int i = 0; i + 1 < refs.size(); i += 2) {
+                        labels.put(request.getSymbols(refs.get(i)), request.getSymbols(refs.get(i + 1)));
+                    }
+                }
+                for (RemoteWriteV2Request.Sample sample : timeSeries.getSamplesList()) {
+                    sample(labels, sample.getValue(), sample.getTimestamp(), now);
+                }
+                for (RemoteWriteV2Request.Histogram histogram : timeSeries.getHistogramsList()) {
+                    histogram(histogram.getTimestamp(), now);
+                }
+            }
+            receivedSeries.add(request.getTimeseriesCount());
+        } else {
+            RemoteWriteRequest.WriteRequest request = RemoteWriteRequest.WriteRequest.parseFrom(uncompressed);
+            for (RemoteWriteRequest.TimeSeries timeSeries : request.getTimeseriesList()) {
+                Map<String, String> labels = recordSeries ? new TreeMap<>() : null;
+                if (labels != null) {
+                    for (RemoteWriteRequest.Label label : timeSeries.getLabelsList()) {
+                        labels.put(label.getName(), label.getValue());
+                    }
+                }
+                for (RemoteWriteRequest.Sample sample : timeSeries.getSamplesList()) {
+                    sample(labels, sample.getValue(), sample.getTimestamp(), now);
+                }
+                for (RemoteWriteRequest.Histogram histogram : timeSeries.getHistogramsList()) {
+                    histogram(histogram.getTimestamp(), now);
+                }
+            }
+            receivedSeries.add(request.getTimeseriesCount());
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void sample(Map<String, String> labels, double value, long timestamp, long now) {
+        samples.increment();
+        delay(timestamp, now);
+        if (labels != null) {
+            List<ReceivedSample> received = series.computeIfAbsent(labels,
+                    key -> Collections.synchronizedList(new ArrayList<>()));
+            received.add(new ReceivedSample(value, timestamp));
+        }
+    }
+
+    private void histogram(long timestamp, long now) {
+        histograms.increment();
+        delay(timestamp, now);
+    }
+
+    private void delay(long timestamp, long now) {
+        long delay = Math.max(0, now - timestamp);
+        delayMillisTotal.add(delay);
+        maxDelayMillis.accumulateAndGet(delay, Math::max);
+    }
+
+    /**
+     * Blocks until at least {@code count} samples and histograms have been received in total.
+     *
+     * @throws TimeoutException if they did not arrive within the timeout
+     */
+    public void awaitSamples(long count, Duration timeout) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            while (samples() + histograms() < count) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException("Received " + (samples() + histograms()) + " of " + count
+                            + " samples");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public long rejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    public long compressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long uncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    public long series() {
+        return receivedSeries.sum();
+    }
+
+    public long samples() {
+        return samples.sum();
+    }
+
+    public long histograms() {
+        return histograms.sum();
+    }
+
+    /**
+     * Mean delay from the timestamp of received samples to their arrival.
+     */
+    public double meanDelayMillis() {
+        long count = samples() + histograms();
+        return count == 0 ? 0 : (double) delayMillisTotal.sum() / count;
+    }
+
+    public long maxDelayMillis() {
+        return maxDelayMillis.get();
+    }
+
+    /**
+     * Samples received for the series with the given name and labels, in arrival order. Empty unless the
+     * receiver records series.
+     */
+    public List<ReceivedSample> samples(String name, Map<String, String> labels) {
+        Map<String, String> key = new TreeMap<>(labels);
+        key.put(NAME_LABEL, name);
+        List<ReceivedSample> received = series.get(key);
+        if (received == null) {
+            return List.of();
+        }
+        synchronized (received) {
+            return List.copyOf(received);
+        }
+    }
+
+    /**
+     * Label sets of every recorded series, including {@code __name__}.
+     */
+    public List<Map<String, String>> seriesLabels() {
+        return List.copyOf(series.keySet());
+    }
+
+    /**
+     * Clears the counters and recorded series, keeping injected faults.
+     */
+    public void reset() {
+        series.clear();
+        requests.reset();
+        rejectedRequests.reset();
+        compressedBytes.reset();
+        uncompressedBytes.reset();
+        receivedSeries.reset();
+        samples.reset();
+        histograms.reset();
+        delayMillisTotal.reset();
+        maxDelayMillis.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public record ReceivedSample(double value, long timestamp) {
+    }
+}
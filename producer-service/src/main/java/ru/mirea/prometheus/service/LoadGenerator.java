@@ -0,0 +1,209 @@
+package ru.mirea.prometheus.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends messages from several threads as fast as possible or at a target rate, with payload sizes drawn from a
+ * distribution. Send latency, from the time a message was due to its acknowledgement, is recorded into an
+ * HdrHistogram that is logged every report interval and into a {@code producer.send} timer with client-side
+ * percentiles, which the exporter sends with the other metrics.
+ * <p>
+ * At a target rate every thread sends on a fixed schedule, so a stalled send delays the following messages and
+ * their latency includes the wait, instead of the stall hiding behind fewer measurements.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "producer.load", name = "enabled", havingValue = "true")
+public class LoadGenerator implements CommandLineRunner {
+
+    private static final String TOPIC = "demo-topic";
+    private static final long MAX_TRACKED_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final int rate;
+    private final int threads;
+    private final long reportIntervalSeconds;
+    private final PayloadDistribution distribution;
+    private final int minPayloadBytes;
+    private final int maxPayloadBytes;
+    private final String payload;
+
+    private final Recorder recorder = new Recorder(MAX_TRACKED_LATENCY_NANOS, 3);
+    private final LongAdder sent = new LongAdder();
+    private final Timer sendTimer;
+    private final Counter sendErrors;
+    private final DistributionSummary payloadBytes;
+    private final List<Thread> senders = new ArrayList<>();
+
+    private volatile boolean running = true;
+    private Histogram interval;
+
+    public LoadGenerator(KafkaTemplate<String, String> kafkaTemplate, MeterRegistry meterRegistry,
+                         @Value("${producer.load.rate:0}") int rate,
+                         @Value("${producer.load.threads:1}") int threads,
+                         @Value("${producer.load.report-interval-seconds:10}") long reportIntervalSeconds,
+                         @Value("${producer.load.payload.distribution:FIXED}") PayloadDistribution distribution,
+                         @Value("${producer.load.payload.min-bytes:100}") int minPayloadBytes,
+                         @Value("${producer.load.payload.max-bytes:100}") int maxPayloadBytes) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be greater than 0");
+        }
+        if (reportIntervalSeconds <= 0) {
+            throw new IllegalArgumentException("ReportIntervalSeconds must be greater than 0");
+        }
+        if (minPayloadBytes <= 0 || maxPayloadBytes < minPayloadBytes) {
+            throw new IllegalArgumentException("Payload sizes must satisfy 0 < minBytes <= maxBytes");
+        }
+        this.kafkaTemplate = kafkaTemplate;
+        this.rate = rate;
+        this.threads = threads;
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        this.distribution = distribution;
+        this.minPayloadBytes = minPayloadBytes;
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.payload = randomPayload(maxPayloadBytes);
+        this.sendTimer = Timer.builder("producer.send")
+                .description("Time from when a message was due until Kafka acknowledged it")
+                .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                .register(meterRegistry);
+        this.sendErrors = Counter.builder("producer.send.errors")
+                .register(meterRegistry);
+        this.payloadBytes = DistributionSummary.builder("producer.payload")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void run(String... args) {
+        log.info("Generating load with {} threads at {}, payload {} {}-{} bytes", threads,
+                rate > 0 ? rate + " msg/s" : "max throughput", distribution, minPayloadBytes, maxPayloadBytes);
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+        for (int i = 0; i < threads; i++) {
+            Thread sender = new Thread(() -> send(intervalNanos), "load-generator-" + i);
+            sender.setDaemon(true);
+            senders.add(sender);
+            sender.start();
+        }
+        Thread reporter = new Thread(this::report, "load-generator-report");
+        reporter.setDaemon(true);
+        senders.add(reporter);
+        reporter.start();
+    }
+
+    private void send(long intervalNanos) {
+        long due = System.nanoTime();
+        while (running) {
+            if (intervalNanos > 0) {
+                due += intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                due = System.nanoTime();
+            }
+            long start = due;
+            String message = payload.substring(0, payloadSize());
+            try {
+                kafkaTemplate.send(TOPIC, message).whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        sendErrors.increment();
+                        return;
+                    }
+                    long latency = System.nanoTime() - start;
+                    recorder.recordValue(Math.min(latency, MAX_TRACKED_LATENCY_NANOS));
+                    sendTimer.record(latency, TimeUnit.NANOSECONDS);
+                    sent.increment();
+                });
+                payloadBytes.record(message.length());
+            } catch (RuntimeException e) {
+                sendErrors.increment();
+                log.warn("Unable to send message", e);
+            }
+        }
+    }
+
+    private int payloadSize() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return switch (distribution) {
+            case FIXED -> maxPayloadBytes;
+            case UNIFORM -> random.nextInt(minPayloadBytes, maxPayloadBytes + 1);
+            case EXPONENTIAL -> {
+                double mean = (maxPayloadBytes - minPayloadBytes) / 4.0;
+                long size = minPayloadBytes + Math.round(-mean * Math.log(1 - random.nextDouble()));
+                yield (int) Math.min(size, maxPayloadBytes);
+            }
+        };
+    }
+
+    private void report() {
+        long previousSent = 0;
+        while (running) {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(reportIntervalSeconds));
+            } catch (InterruptedException e) {
+                return;
+            }
+            interval = recorder.getIntervalHistogram(interval);
+            long totalSent = sent.sum();
+            log.info("Sent {} msg/s, latency p50={}ms p99={}ms p99.9={}ms max={}ms",
+                    (totalSent - previousSent) / reportIntervalSeconds,
+                    millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+                    millis(interval.getValueAtPercentile(99.9)), millis(interval.getMaxValue()));
+            previousSent = totalSent;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private static String randomPayload(int length) {
+        char[] chars = new char[length];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+    }
+
+    public enum PayloadDistribution {
+        FIXED,
+        UNIFORM,
+        /**
+         * Sizes from {@code min-bytes} with a long tail, a quarter of the range on average, capped at
+         * {@code max-bytes}.
+         */
+        EXPONENTIAL
+    }
+}
@@ -1,18 +1,50 @@
 package ru.mirea.prometheus.service;
 
 import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import ru.mirea.prometheus.exporter.AggregationRule;
+import ru.mirea.prometheus.exporter.CompressionCodec;
+import ru.mirea.prometheus.exporter.FanOutSink;
+import ru.mirea.prometheus.exporter.HistogramFormat;
+import ru.mirea.prometheus.exporter.LabelConflictPolicy;
 import ru.mirea.prometheus.exporter.MetricExporter;
 import ru.mirea.prometheus.exporter.PrometheusRemoteWriteClient;
+import ru.mirea.prometheus.exporter.QueueOverflowPolicy;
+import ru.mirea.prometheus.exporter.Relabeler;
+import ru.mirea.prometheus.exporter.RemoteWriteMeterRegistry;
+import ru.mirea.prometheus.exporter.RemoteWriteProtocol;
+import ru.mirea.prometheus.exporter.RemoteWriteSink;
+import ru.mirea.prometheus.exporter.RetryPolicy;
+import ru.mirea.prometheus.exporter.SeriesLabelCache;
+import ru.mirea.prometheus.exporter.ShardedSender;
+import ru.mirea.prometheus.exporter.SnappyCodec;
 import ru.mirea.prometheus.exporter.SystemInfo;
+import ru.mirea.prometheus.exporter.WriteAheadLog;
+import ru.mirea.prometheus.exporter.ZstdCodec;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 @Profile({"test", "prod"})
 public class MetricsConfig {
 
+    private static final int SEND_INTERVAL_SECONDS = 10;
+    private static final String PRIMARY_TARGET = "primary";
+
     @Value("${metrics.api-url}")
     private String apiUrl;
     @Value("${metrics.token}")
@@ -29,20 +61,202 @@ public class MetricsConfig {
     @Value("${HOSTNAME:unknown}")
     private String hostname;
 
+    @Value("${metrics.protocol:V1}")
+    private RemoteWriteProtocol protocol;
+    @Value("${metrics.histogram-format:CLASSIC}")
+    private HistogramFormat histogramFormat;
+    @Value("${metrics.label-conflict-policy:RENAME}")
+    private LabelConflictPolicy labelConflictPolicy;
+
+    @Value("${metrics.batch.max-bytes:" + RemoteWriteSink.DEFAULT_MAX_REQUEST_BYTES + "}")
+    private int batchMaxBytes;
+    @Value("${metrics.batch.max-series:0}")
+    private int batchMaxSeries;
+
+    @Value("${metrics.compression.codec:snappy}")
+    private String compressionCodec;
+    @Value("${metrics.compression.zstd-level:" + ZstdCodec.DEFAULT_LEVEL + "}")
+    private int zstdLevel;
+
+    @Value("${metrics.wal.directory:}")
+    private String walDirectory;
+    @Value("${metrics.wal.max-disk-bytes:" + WriteAheadLog.DEFAULT_MAX_DISK_BYTES + "}")
+    private long walMaxDiskBytes;
+
+    @Value("${metrics.sender.min-shards:1}")
+    private int minShards;
+    @Value("${metrics.sender.max-shards:1}")
+    private int maxShards;
+    @Value("${metrics.sender.queue-capacity:" + ShardedSender.DEFAULT_QUEUE_CAPACITY + "}")
+    private int queueCapacity;
+    @Value("${metrics.sender.overflow-policy:DROP_NEWEST}")
+    private QueueOverflowPolicy overflowPolicy;
+
+    @Value("${metrics.targets:}")
+    private String targets;
+
+    @Value("${metrics.delta.enabled:false}")
+    private boolean deltaEnabled;
+    @Value("${metrics.delta.heartbeat-seconds:240}")
+    private long deltaHeartbeatSeconds;
+
+    @Value("${metrics.parallelism:1}")
+    private int parallelism;
+    @Value("${metrics.parallel-threshold:" + MetricExporter.DEFAULT_PARALLEL_THRESHOLD + "}")
+    private int parallelThreshold;
+    @Value("${metrics.label-cache.max-entries:" + SeriesLabelCache.DEFAULT_MAX_ENTRIES + "}")
+    private int labelCacheMaxEntries;
+
+    @Value("${metrics.relabel.keep-metrics:}")
+    private String keepMetrics;
+    @Value("${metrics.relabel.drop-metrics:}")
+    private String dropMetrics;
+    @Value("${metrics.relabel.drop-labels:}")
+    private String dropLabels;
+    @Value("${metrics.relabel.max-series-per-metric:0}")
+    private int maxSeriesPerMetric;
+    @Value("${metrics.relabel.limit-window-minutes:60}")
+    private long limitWindowMinutes;
+
+    @Value("${metrics.aggregation.rules:}")
+    private String aggregationRules;
+
+    @Value("${metrics.push.include-prefixes:}")
+    private String includePrefixes;
+
+    private final List<ShardedSender> targetSenders = new ArrayList<>();
+    private final List<PrometheusRemoteWriteClient> targetClients = new ArrayList<>();
+
+    @Bean
+    public PrometheusRemoteWriteClient prometheusRemoteWriteClient() {
+        WriteAheadLog writeAheadLog = walDirectory.isBlank() ? null : new WriteAheadLog(
+                Path.of(walDirectory), WriteAheadLog.DEFAULT_SEGMENT_SIZE, walMaxDiskBytes);
+        return PrometheusRemoteWriteClient.builder()
+                .apiUrl(apiUrl)
+                .userAgent(userAgent)
+                .authorization(token)
+                .codec(codec(compressionCodec))
+                .protocol(protocol)
+                .histogramFormat(histogramFormat)
+                .maxRequestBytes(batchMaxBytes)
+                .maxSeriesPerRequest(batchMaxSeries > 0 ? batchMaxSeries : null)
+                .retryPolicy(new RetryPolicy(Duration.ofSeconds(SEND_INTERVAL_SECONDS)))
+                .writeAheadLog(writeAheadLog)
+                .build();
+    }
+
     @Bean
-    public PrometheusRemoteWriteClient
-    prometheusRemoteWriteClient() {
-        return new PrometheusRemoteWriteClient(apiUrl, token, userAgent);
+    public ShardedSender shardedSender(PrometheusRemoteWriteClient prometheusRemoteWriteClient) {
+        return new ShardedSender(prometheusRemoteWriteClient, minShards, maxShards, queueCapacity, overflowPolicy,
+                Duration.ofSeconds(SEND_INTERVAL_SECONDS));
     }
 
     @Bean
+    @ConditionalOnProperty(prefix = "metrics", name = "mode", havingValue = "scrape", matchIfMissing = true)
     public MetricExporter metricExporter(PrometheusMeterRegistry prometheusMeterRegistry,
-                                         PrometheusRemoteWriteClient prometheusRemoteWriteClient) {
-        return new MetricExporter(
-                new SystemInfo(group, system, env, hostname),
-                10,
-                prometheusMeterRegistry,
-                prometheusRemoteWriteClient
-        );
+                                         ShardedSender shardedSender, Environment environment) {
+        return MetricExporter.builder()
+                .systemInfo(new SystemInfo(group, system, env, hostname))
+                .sendIntervalSeconds(SEND_INTERVAL_SECONDS)
+                .meterRegistry(prometheusMeterRegistry)
+                .remoteWriteSink(remoteWriteSink(shardedSender, environment))
+                .deltaHeartbeat(deltaEnabled ? Duration.ofSeconds(deltaHeartbeatSeconds) : null)
+                .parallelism(parallelism)
+                .parallelThreshold(parallelThreshold)
+                .labelCacheMaxEntries(labelCacheMaxEntries)
+                .relabeler(Relabeler.builder()
+                        .keepMetrics(keepMetrics)
+                        .dropMetrics(dropMetrics)
+                        .dropLabels(dropLabels)
+                        .maxSeriesPerMetric(maxSeriesPerMetric)
+                        .limitWindow(Duration.ofMinutes(limitWindowMinutes))
+                        .build())
+                .aggregationRules(AggregationRule.parse(aggregationRules))
+                .labelConflictPolicy(labelConflictPolicy)
+                .build();
+    }
+
+    /**
+     * Streams meters to the sink without scraping, when {@code metrics.mode} is {@code push}. Spring Boot adds
+     * the registry to its composite registry, so application meters are recorded here as well.
+     */
+    @Bean
+    @ConditionalOnExpression("'${metrics.mode:scrape}' == 'push' and ${metrics.metrics-exporter-enabled:false}")
+    public RemoteWriteMeterRegistry remoteWriteMeterRegistry(ShardedSender shardedSender,
+                                                             Environment environment) {
+        RemoteWriteMeterRegistry registry = RemoteWriteMeterRegistry.builder()
+                .systemInfo(new SystemInfo(group, system, env, hostname))
+                .remoteWriteSink(remoteWriteSink(shardedSender, environment))
+                .step(Duration.ofSeconds(SEND_INTERVAL_SECONDS))
+                .includePrefixes(Arrays.stream(includePrefixes.split(","))
+                        .map(String::trim)
+                        .filter(prefix -> !prefix.isEmpty())
+                        .toList())
+                .deltaHeartbeat(deltaEnabled ? Duration.ofSeconds(deltaHeartbeatSeconds) : null)
+                .labelConflictPolicy(labelConflictPolicy)
+                .labelCacheMaxEntries(labelCacheMaxEntries)
+                .build();
+        registry.start(new NamedThreadFactory("remote-write-push"));
+        return registry;
+    }
+
+    /**
+     * Returns the primary sender alone, or a fan-out to it and every endpoint named in {@code metrics.targets}.
+     * Each of them is configured under {@code metrics.target.<name>} with its own URL, token, codec, protocol,
+     * shards, queue, overflow policy and retry budget.
+     */
+    private RemoteWriteSink remoteWriteSink(ShardedSender shardedSender, Environment environment) {
+        List<String> names = Arrays.stream(targets.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .toList();
+        if (names.isEmpty()) {
+            return shardedSender;
+        }
+        Map<String, ShardedSender> senders = new LinkedHashMap<>();
+        senders.put(PRIMARY_TARGET, shardedSender);
+        for (String name : names) {
+            String prefix = "metrics.target." + name + ".";
+            long retryBudgetSeconds = environment.getProperty(prefix + "retry-budget-seconds", Long.class,
+                    (long) SEND_INTERVAL_SECONDS);
+            PrometheusRemoteWriteClient client = PrometheusRemoteWriteClient.builder()
+                    .apiUrl(environment.getRequiredProperty(prefix + "api-url"))
+                    .userAgent(userAgent)
+                    .authorization(environment.getProperty(prefix + "token", token))
+                    .codec(codec(environment.getProperty(prefix + "compression.codec", compressionCodec)))
+                    .protocol(environment.getProperty(prefix + "protocol", RemoteWriteProtocol.class, protocol))
+                    .histogramFormat(environment.getProperty(prefix + "histogram-format", HistogramFormat.class,
+                            histogramFormat))
+                    .maxRequestBytes(batchMaxBytes)
+                    .maxSeriesPerRequest(batchMaxSeries > 0 ? batchMaxSeries : null)
+                    .retryPolicy(new RetryPolicy(Duration.ofSeconds(retryBudgetSeconds)))
+                    .build();
+            ShardedSender sender = new ShardedSender(client,
+                    environment.getProperty(prefix + "min-shards", Integer.class, 1),
+                    environment.getProperty(prefix + "max-shards", Integer.class, 1),
+                    environment.getProperty(prefix + "queue-capacity", Integer.class,
+                            ShardedSender.DEFAULT_QUEUE_CAPACITY),
+                    environment.getProperty(prefix + "overflow-policy", QueueOverflowPolicy.class,
+                            QueueOverflowPolicy.DROP_OLDEST),
+                    Duration.ofSeconds(SEND_INTERVAL_SECONDS));
+            targetClients.add(client);
+            targetSenders.add(sender);
+            senders.put(name, sender);
+        }
+        return new FanOutSink(senders);
+    }
+
+    private CompressionCodec codec(String name) {
+        return switch (name) {
+            case "snappy" -> new SnappyCodec();
+            case "zstd" -> new ZstdCodec(zstdLevel);
+            default -> throw new IllegalArgumentException("Unsupported compression codec: " + name);
+        };
+    }
+
+    @PreDestroy
+    public void closeTargets() {
+        targetSenders.forEach(ShardedSender::close);
+        targetClients.forEach(PrometheusRemoteWriteClient::close);
     }
 }
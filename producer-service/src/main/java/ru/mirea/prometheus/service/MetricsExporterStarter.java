@@ -1,7 +1,7 @@
 package ru.mirea.prometheus.service;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
@@ -9,7 +9,7 @@ import ru.mirea.prometheus.exporter.MetricExporter;
 
 @Component
 @RequiredArgsConstructor
-@ConditionalOnProperty(prefix = "metrics", name = "metrics-exporter-enabled", havingValue = "true")
+@ConditionalOnExpression("${metrics.metrics-exporter-enabled:false} and '${metrics.mode:scrape}' == 'scrape'")
 public class MetricsExporterStarter {
 
     private final MetricExporter metricExporter;
@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
@@ -22,6 +23,7 @@ public class Producer {
     }
 
     @Bean
+    @ConditionalOnProperty(prefix = "producer.load", name = "enabled", havingValue = "false", matchIfMissing = true)
     public CommandLineRunner commandLineRunner(KafkaTemplate<String, String> kafkaTemplate,
                                                @Value("${HOSTNAME:unknown}") String hostname) {
         return args -> {
@@ -0,0 +1,12 @@
+package ru.mirea.prometheus.service;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class Relay {
+
+    public static void main(String[] args) {
+        SpringApplication.run(Relay.class, args);
+    }
+}
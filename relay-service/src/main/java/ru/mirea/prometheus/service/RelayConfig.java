@@ -0,0 +1,132 @@
+package ru.mirea.prometheus.service;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.mirea.prometheus.exporter.CompressionCodec;
+import ru.mirea.prometheus.exporter.HistogramFormat;
+import ru.mirea.prometheus.exporter.MetricExporter;
+import ru.mirea.prometheus.exporter.PrometheusRemoteWriteClient;
+import ru.mirea.prometheus.exporter.RemoteWriteProtocol;
+import ru.mirea.prometheus.exporter.RemoteWriteRelay;
+import ru.mirea.prometheus.exporter.RemoteWriteSink;
+import ru.mirea.prometheus.exporter.RetryPolicy;
+import ru.mirea.prometheus.exporter.ShardedSender;
+import ru.mirea.prometheus.exporter.SnappyCodec;
+import ru.mirea.prometheus.exporter.SystemInfo;
+import ru.mirea.prometheus.exporter.WriteAheadLog;
+import ru.mirea.prometheus.exporter.ZstdCodec;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+public class RelayConfig {
+
+    private static final int SEND_INTERVAL_SECONDS = 10;
+
+    @Value("${metrics.api-url}")
+    private String apiUrl;
+    @Value("${metrics.token}")
+    private String token;
+    @Value("${spring.application.name}")
+    private String userAgent;
+
+    @Value("${metrics.group}")
+    private String group;
+    @Value("${spring.application.name}")
+    private String system;
+    @Value("${spring.profiles.active:default}")
+    private String env;
+    @Value("${HOSTNAME:unknown}")
+    private String hostname;
+
+    @Value("${metrics.histogram-format:CLASSIC}")
+    private HistogramFormat histogramFormat;
+
+    @Value("${metrics.batch.max-bytes:" + RemoteWriteSink.DEFAULT_MAX_REQUEST_BYTES + "}")
+    private int batchMaxBytes;
+    @Value("${metrics.batch.max-series:0}")
+    private int batchMaxSeries;
+
+    @Value("${metrics.compression.codec:snappy}")
+    private String compressionCodec;
+    @Value("${metrics.compression.zstd-level:" + ZstdCodec.DEFAULT_LEVEL + "}")
+    private int zstdLevel;
+
+    @Value("${metrics.wal.directory:}")
+    private String walDirectory;
+    @Value("${metrics.wal.max-disk-bytes:" + WriteAheadLog.DEFAULT_MAX_DISK_BYTES + "}")
+    private long walMaxDiskBytes;
+
+    @Value("${metrics.sender.min-shards:1}")
+    private int minShards;
+    @Value("${metrics.sender.max-shards:1}")
+    private int maxShards;
+
+    @Value("${relay.max-request-bytes:" + RemoteWriteRelay.DEFAULT_MAX_REQUEST_BYTES + "}")
+    private int maxRequestBytes;
+    @Value("${relay.flush-interval-millis:1000}")
+    private long flushIntervalMillis;
+
+    /**
+     * Upstream client. Relayed series are forwarded as 1.0, so the protocol is not configurable here.
+     */
+    @Bean
+    public PrometheusRemoteWriteClient prometheusRemoteWriteClient() {
+        CompressionCodec codec = switch (compressionCodec) {
+            case "snappy" -> new SnappyCodec();
+            case "zstd" -> new ZstdCodec(zstdLevel);
+            default -> throw new IllegalArgumentException("Unsupported compression codec: " + compressionCodec);
+        };
+        WriteAheadLog writeAheadLog = walDirectory.isBlank() ? null : new WriteAheadLog(
+                Path.of(walDirectory), WriteAheadLog.DEFAULT_SEGMENT_SIZE, walMaxDiskBytes);
+        return PrometheusRemoteWriteClient.builder()
+                .apiUrl(apiUrl)
+                .userAgent(userAgent)
+                .authorization(token)
+                .codec(codec)
+                .protocol(RemoteWriteProtocol.V1)
+                .histogramFormat(histogramFormat)
+                .maxRequestBytes(batchMaxBytes)
+                .maxSeriesPerRequest(batchMaxSeries > 0 ? batchMaxSeries : null)
+                .retryPolicy(new RetryPolicy(Duration.ofSeconds(SEND_INTERVAL_SECONDS)))
+                .writeAheadLog(writeAheadLog)
+                .build();
+    }
+
+    /**
+     * Sender shared by the relay and the relay's own exporter. It reshards on its own thread once per flush
+     * interval, from the time its shards were busy, so neither caller's cycle decides when or waits for it.
+     */
+    @Bean
+    public ShardedSender shardedSender(PrometheusRemoteWriteClient prometheusRemoteWriteClient) {
+        return new ShardedSender(prometheusRemoteWriteClient, minShards, maxShards,
+                Duration.ofMillis(flushIntervalMillis));
+    }
+
+    @Bean
+    public RemoteWriteRelay remoteWriteRelay(ShardedSender shardedSender) {
+        return RemoteWriteRelay.builder()
+                .remoteWriteSink(shardedSender)
+                .maxRequestBytes(maxRequestBytes)
+                .flushInterval(Duration.ofMillis(flushIntervalMillis))
+                .build();
+    }
+
+    /**
+     * Exports the relay's own metrics, including its {@code exporter.relay.*} counters, through the same sender.
+     */
+    @Bean
+    public MetricExporter metricExporter(PrometheusMeterRegistry prometheusMeterRegistry,
+                                         ShardedSender shardedSender, RemoteWriteRelay remoteWriteRelay) {
+        remoteWriteRelay.bindTo(prometheusMeterRegistry);
+        return MetricExporter.builder()
+                .systemInfo(new SystemInfo(group, system, env, hostname))
+                .sendIntervalSeconds(SEND_INTERVAL_SECONDS)
+                .meterRegistry(prometheusMeterRegistry)
+                .remoteWriteSink(shardedSender)
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+package ru.mirea.prometheus.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.mirea.prometheus.exporter.RemoteWriteRelay;
+
+import java.io.IOException;
+
+/**
+ * Remote-write 1.0 endpoint for local exporters. A 2.0 request is answered with 415, which makes the exporter
+ * client fall back to 1.0.
+ */
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+public class RemoteWriteController {
+
+    private static final String V2_MESSAGE = "io.prometheus.write.v2.Request";
+
+    private final RemoteWriteRelay remoteWriteRelay;
+
+    @PostMapping("/api/v1/write")
+    public ResponseEntity<String> write(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (contentType != null && contentType.contains(V2_MESSAGE)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).body("Only remote-write 1.0 is accepted");
+        }
+        if (!remoteWriteRelay.supportsEncoding(contentEncoding)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .body("Unsupported content encoding " + contentEncoding);
+        }
+        if (request.getContentLength() < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).build();
+        }
+        try {
+            remoteWriteRelay.accept(request.getInputStream(), request.getContentLength(), contentEncoding);
+        } catch (IOException e) {
+            log.debug("Rejected remote-write request from {}", request.getRemoteAddr(), e);
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return ResponseEntity.noContent().build();
+    }
+}